@@ -1,45 +1,23 @@
 package com.atomist.rug.resolver;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
 import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
 
 public class ArtifactDescriptorFactory {
 
     public static ArtifactDescriptor copyFrom(ArtifactDescriptor artifact, String version) {
-        DefaultArtifactDescriptor newArtifact;
-        if (artifact instanceof LocalArtifactDescriptor) {
-            newArtifact = new LocalArtifactDescriptor(artifact.group(), artifact.artifact(),
-                    version, artifact.extension(), artifact.scope(), artifact.uri());
-        }
-        else {
-            newArtifact = new DefaultArtifactDescriptor(artifact.group(), artifact.artifact(),
-                    version, artifact.extension(), artifact.scope(), artifact.uri());
-        }
-        artifact.dependencies().forEach(d -> newArtifact.addDependency(
-                copyFromParent(artifact, d, artifact.group(), artifact.artifact(), version)));
-        return newArtifact;
+        return copyFrom(artifact, null, null, version, artifact.extension());
     }
 
     public static ArtifactDescriptor copyFrom(ArtifactDescriptor a, String group, String artifact,
             String version) {
-        String _group = (group != null ? group : a.group());
-        String _artifact = (artifact != null ? artifact : a.artifact());
-        String _version = (version != null ? version : a.version());
-
-        DefaultArtifactDescriptor newArtifact;
-
-        if (a instanceof LocalArtifactDescriptor) {
-            newArtifact = new LocalArtifactDescriptor(_group, _artifact, _version, a.extension(),
-                    a.scope(), a.uri());
-        }
-        else {
-            newArtifact = new DefaultArtifactDescriptor(_group, _artifact, _version, a.extension(),
-                    a.scope(), a.uri());
-        }
-        a.dependencies().forEach(
-                d -> newArtifact.addDependency(copyFromParent(a, d, _group, _artifact, _version)));
-        return newArtifact;
-
+        return copyFrom(a, group, artifact, version, a.extension());
     }
 
     public static ArtifactDescriptor copyFrom(ArtifactDescriptor a, String group, String artifact,
@@ -48,19 +26,18 @@ public class ArtifactDescriptorFactory {
         String _artifact = (artifact != null ? artifact : a.artifact());
         String _version = (version != null ? version : a.version());
 
-        DefaultArtifactDescriptor newArtifact;
+        List<ArtifactDescriptor> dependencies = a.dependencies().stream()
+                .map(d -> copyFromParent(a, d, _group, _artifact, _version))
+                .collect(Collectors.toList());
 
         if (a instanceof LocalArtifactDescriptor) {
-            newArtifact = new LocalArtifactDescriptor(_group, _artifact, _version, ext, a.scope(),
-                    a.uri());
+            LocalArtifactDescriptor newArtifact = new LocalArtifactDescriptor(_group, _artifact,
+                    _version, ext, a.scope(), a.uri());
+            dependencies.forEach(newArtifact::addDependency);
+            return newArtifact;
         }
-        else {
-            newArtifact = new DefaultArtifactDescriptor(_group, _artifact, _version, ext, a.scope(),
-                    a.uri());
-        }
-        a.dependencies().forEach(
-                d -> newArtifact.addDependency(copyFromParent(a, d, _group, _artifact, _version)));
-        return newArtifact;
+        return ImmutableArtifactDescriptor.of(_group, _artifact, _version, ext, a.scope(),
+                a.uri(), dependencies);
     }
 
     public static ArtifactDescriptor create(String artifact, String version) {
@@ -69,10 +46,11 @@ public class ArtifactDescriptorFactory {
         }
         String[] segments = artifact.split(":");
         if (segments.length == 2) {
-            return new DefaultArtifactDescriptor(segments[0], segments[1], version, Extension.JAR);
+            return ImmutableArtifactDescriptor.of(segments[0], segments[1], version,
+                    Extension.JAR);
         }
         else if (segments.length == 3) {
-            return new DefaultArtifactDescriptor(segments[0], segments[1], version,
+            return ImmutableArtifactDescriptor.of(segments[0], segments[1], version,
                     toExtension(segments[2]));
         }
         throw new IllegalArgumentException(String.format(
@@ -80,6 +58,14 @@ public class ArtifactDescriptorFactory {
                 artifact));
     }
 
+    /**
+     * Returns a mutable copy of the given tree, e.g. to serialize it; subtrees shared in the given
+     * tree stay shared.
+     */
+    public static DefaultArtifactDescriptor toDefault(ArtifactDescriptor artifact) {
+        return toDefault(artifact, new IdentityHashMap<>());
+    }
+
     public static Extension toExtension(String extension) {
         return Extension.valueOf(extension.toUpperCase().replace(".", "_"));
     }
@@ -92,9 +78,24 @@ public class ArtifactDescriptorFactory {
             ArtifactDescriptor child, String group, String artifact, String version) {
         if (parent.group().equals(child.group()) && parent.artifact().equals(child.artifact())
                 && parent.version().equals(child.version())) {
-            return new DefaultArtifactDescriptor(group, artifact, version, child.extension(),
-                    child.scope(), child.classifier(), child.uri());
+            return ImmutableArtifactDescriptor.of(group, artifact, version, child.extension(),
+                    child.scope(), child.classifier(), child.uri(), Collections.emptyList());
         }
         return child;
     }
+
+    private static DefaultArtifactDescriptor toDefault(ArtifactDescriptor artifact,
+            Map<ArtifactDescriptor, DefaultArtifactDescriptor> copies) {
+        DefaultArtifactDescriptor copy = copies.get(artifact);
+        if (copy == null) {
+            DefaultArtifactDescriptor newArtifact = new DefaultArtifactDescriptor(
+                    artifact.group(), artifact.artifact(), artifact.version(),
+                    artifact.extension(), artifact.scope(), artifact.classifier(),
+                    artifact.uri());
+            artifact.dependencies().forEach(d -> newArtifact.addDependency(toDefault(d, copies)));
+            copies.put(artifact, newArtifact);
+            copy = newArtifact;
+        }
+        return copy;
+    }
 }
@@ -0,0 +1,96 @@
+package com.atomist.rug.resolver;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import com.atomist.rug.resolver.concurrent.BufferedSubscription;
+import com.atomist.rug.resolver.concurrent.Futures;
+import com.atomist.rug.resolver.concurrent.Subscriber;
+
+/**
+ * Non-blocking variant of {@link DependencyResolver}.
+ * </p>
+ * Returned futures complete exceptionally with a {@link DependencyResolverException} if resolution
+ * fails. Cancelling a returned future only abandons the caller's interest in the result.
+ */
+public interface AsyncDependencyResolver {
+
+    CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(ArtifactDescriptor artifact,
+            DependencyVerifier... verifiers);
+
+    CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact);
+
+    /**
+     * Resolves the rug trees of several archives; the returned trees are in the order of the
+     * given archives.
+     */
+    default CompletableFuture<List<ArtifactDescriptor>> resolveRugs(
+            Collection<ArtifactDescriptor> artifacts) {
+        List<CompletableFuture<ArtifactDescriptor>> trees = artifacts.stream()
+                .map(a -> resolveRugs(a)).collect(Collectors.toList());
+        return CompletableFuture.allOf(trees.toArray(new CompletableFuture<?>[trees.size()]))
+                .thenApply(v -> trees.stream().map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+    }
+
+    CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact);
+
+    /**
+     * Resolves the versions of several archives; archives asking for the same version of the same
+     * group and artifact are only resolved once. The returned map is in the order of the given
+     * archives.
+     */
+    default CompletableFuture<Map<ArtifactDescriptor, String>> resolveVersions(
+            Collection<ArtifactDescriptor> artifacts) {
+        Map<String, CompletableFuture<String>> versions = new HashMap<>();
+        Map<ArtifactDescriptor, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        artifacts.forEach(a -> futures.put(a, versions.computeIfAbsent(
+                a.group() + ":" + a.artifact() + ":" + a.version(), k -> resolveVersion(a))));
+        return CompletableFuture
+                .allOf(versions.values().toArray(new CompletableFuture<?>[versions.size()]))
+                .thenApply(v -> {
+                    Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+                    futures.forEach((a, f) -> result.put(a, f.join()));
+                    return result;
+                });
+    }
+
+    /**
+     * Streams the dependencies of the given archive to the subscriber, each with its local file,
+     * as far as it requested them; the subscriber is completed with the list
+     * {@link #resolveDependencies(ArtifactDescriptor, DependencyVerifier...)} would return.
+     * Cancelling the subscription cancels the resolution. Requests only pace the delivery of
+     * dependencies; they are resolved and downloaded regardless and buffered until requested.
+     * </p>
+     * This default implementation emits the dependencies once all of them are resolved.
+     */
+    default void streamDependencies(ArtifactDescriptor artifact,
+            Subscriber<ArtifactDescriptor, List<ArtifactDescriptor>> subscriber,
+            DependencyVerifier... verifiers) {
+        BufferedSubscription<ArtifactDescriptor, List<ArtifactDescriptor>> subscription =
+                new BufferedSubscription<>(subscriber);
+        subscriber.onSubscribe(subscription);
+        CompletableFuture<List<ArtifactDescriptor>> dependencies = resolveDependencies(artifact,
+                verifiers);
+        subscription.onCancel(() -> dependencies.cancel(false));
+        dependencies.whenComplete((d, t) -> {
+            if (t != null) {
+                subscription.error(Futures.unwrap(t));
+            }
+            else {
+                d.forEach(subscription::offer);
+                subscription.complete(d);
+            }
+        });
+    }
+
+    default void addDependencyVerificationListener(DependencyVerificationListener listener) {
+        // no op
+    }
+
+}
@@ -0,0 +1,273 @@
+package com.atomist.rug.resolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.io.FileUtils;
+
+import com.atomist.rug.resolver.concurrent.Futures;
+
+/**
+ * {@link AsyncDependencyResolver} that adds the caching semantics of
+ * {@link CachingDependencyResolver} on top of a wrapped {@link AsyncDependencyResolver}.
+ * </p>
+ * Cached plans are returned as already completed futures; otherwise the plan is written once the
+ * wrapped resolver completes. If constructed with a refresh {@link Executor}, expired plans of
+ * remote archives are returned right away while a refresh started from the executor swaps the
+ * plan once it completes. Plans expired for more than a day are resolved again instead.
+ */
+public class CachingAsyncDependencyResolver implements AsyncDependencyResolver {
+
+    private AsyncDependencyResolver delegate;
+    private ResolverPlanStore plans;
+    private PlanRefresher refresher;
+    private VersionCache versions;
+
+    public CachingAsyncDependencyResolver(AsyncDependencyResolver delegate) {
+        this(delegate, System.getProperty("user.home"));
+    }
+
+    public CachingAsyncDependencyResolver(AsyncDependencyResolver delegate, String repoHome) {
+        this(delegate, repoHome, VersionCache.TIMEOUT, VersionCache.NEGATIVE_TIMEOUT);
+    }
+
+    public CachingAsyncDependencyResolver(AsyncDependencyResolver delegate, String repoHome,
+            Executor refreshExecutor) {
+        this(delegate, repoHome, VersionCache.TIMEOUT, VersionCache.NEGATIVE_TIMEOUT,
+                refreshExecutor);
+    }
+
+    public CachingAsyncDependencyResolver(AsyncDependencyResolver delegate, String repoHome,
+            long versionTimeout, long negativeVersionTimeout) {
+        this(delegate, repoHome, versionTimeout, negativeVersionTimeout, null);
+    }
+
+    public CachingAsyncDependencyResolver(AsyncDependencyResolver delegate, String repoHome,
+            long versionTimeout, long negativeVersionTimeout, Executor refreshExecutor) {
+        this.delegate = delegate;
+        this.plans = new ResolverPlanStore(repoHome);
+        this.refresher = (refreshExecutor != null ? new PlanRefresher(refreshExecutor) : null);
+        this.versions = new VersionCache(repoHome, versionTimeout, negativeVersionTimeout);
+    }
+
+    @Override
+    public void addDependencyVerificationListener(DependencyVerificationListener listener) {
+        delegate.addDependencyVerificationListener(listener);
+    }
+
+    @Override
+    public CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(
+            ArtifactDescriptor artifact, DependencyVerifier... verifiers) {
+        File artifactRoot = plans.createPlanFile(artifact, true);
+        boolean outdated = artifactRoot.exists() && isOutdated(artifact, artifactRoot);
+        if (artifactRoot.exists() && (!outdated || isServedStale(artifact, artifactRoot))) {
+            Optional<List<ArtifactDescriptor>> planDependencies = plans
+                    .readDependenciesFromPlan(artifactRoot);
+            if (planDependencies.isPresent()) {
+                if (outdated) {
+                    refresher.refresh(artifactRoot,
+                            () -> delegate.resolveDependencies(artifact, verifiers)
+                                    .thenAccept(dependencies -> plans
+                                            .writeDependenciesToPlan(dependencies, artifactRoot)));
+                }
+                return CompletableFuture.completedFuture(planDependencies.get());
+            }
+        }
+
+        // In any case, delete the plan file before attempting to resolve dependencies as otherwise
+        // we end up with stale dependencies in case of resolution errors.
+        FileUtils.deleteQuietly(artifactRoot);
+
+        return delegate.resolveDependencies(artifact, verifiers).thenApply(dependencies -> {
+            plans.writeDependenciesToPlan(dependencies, artifactRoot);
+            return dependencies;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact) {
+        Optional<CompletableFuture<ArtifactDescriptor>> planDependencies = readTree(artifact);
+        if (planDependencies.isPresent()) {
+            return planDependencies.get();
+        }
+
+        return delegate.resolveRugs(artifact).thenApply(tree -> {
+            plans.writeTreeToPlan(artifact, tree);
+            return tree;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<ArtifactDescriptor>> resolveRugs(
+            Collection<ArtifactDescriptor> artifacts) {
+        List<CompletableFuture<ArtifactDescriptor>> trees = new ArrayList<>();
+        List<ArtifactDescriptor> misses = new ArrayList<>();
+        for (ArtifactDescriptor artifact : artifacts) {
+            Optional<CompletableFuture<ArtifactDescriptor>> planDependencies = readTree(artifact);
+            trees.add(planDependencies.orElse(null));
+            if (!planDependencies.isPresent()) {
+                misses.add(artifact);
+            }
+        }
+
+        // Hand all archives without a valid plan to the delegate at once so it can share work
+        if (!misses.isEmpty()) {
+            CompletableFuture<List<ArtifactDescriptor>> resolved = delegate.resolveRugs(misses)
+                    .thenApply(missed -> {
+                        for (int j = 0; j < missed.size(); j++) {
+                            plans.writeTreeToPlan(misses.get(j), missed.get(j));
+                        }
+                        return missed;
+                    });
+            for (int i = 0, j = 0; i < trees.size(); i++) {
+                if (trees.get(i) == null) {
+                    int index = j++;
+                    trees.set(i, resolved.thenApply(missed -> missed.get(index)));
+                }
+            }
+        }
+        return Futures.allOfFailFast(trees);
+    }
+
+    @Override
+    public CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact) {
+        if (VersionCache.isRange(artifact.version())) {
+            Optional<String> cachedVersion;
+            try {
+                cachedVersion = versions.get(artifact);
+            }
+            catch (DependencyResolverException e) {
+                CompletableFuture<String> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                return failure;
+            }
+            if (cachedVersion.isPresent()) {
+                return CompletableFuture.completedFuture(cachedVersion.get());
+            }
+
+            return delegate.resolveVersion(artifact).whenComplete((version, t) -> {
+                Throwable cause = Futures.unwrap(t);
+                if (version != null) {
+                    versions.put(artifact, version);
+                }
+                else if (cause instanceof DependencyResolverException) {
+                    versions.putFailure(artifact, (DependencyResolverException) cause);
+                }
+            });
+        }
+        return delegate.resolveVersion(artifact);
+    }
+
+    @Override
+    public CompletableFuture<Map<ArtifactDescriptor, String>> resolveVersions(
+            Collection<ArtifactDescriptor> artifacts) {
+        Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+        List<ArtifactDescriptor> misses = new ArrayList<>();
+        try {
+            for (ArtifactDescriptor artifact : artifacts) {
+                Optional<String> cachedVersion = (VersionCache.isRange(artifact.version())
+                        ? versions.get(artifact) : Optional.empty());
+                result.put(artifact, cachedVersion.orElse(null));
+                if (!cachedVersion.isPresent()) {
+                    misses.add(artifact);
+                }
+            }
+        }
+        catch (DependencyResolverException e) {
+            CompletableFuture<Map<ArtifactDescriptor, String>> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+        if (misses.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return delegate.resolveVersions(misses).handle((resolved, t) -> {
+            Throwable cause = Futures.unwrap(t);
+            if (cause instanceof DependencyResolverException
+                    && !(cause instanceof DependencyResolverTimeoutException)) {
+                // The batch doesn't tell which range failed; look them up one by one so that
+                // failures are remembered per range like single lookups
+                return resolveEach(misses, result);
+            }
+            else if (t != null) {
+                CompletableFuture<Map<ArtifactDescriptor, String>> failure =
+                        new CompletableFuture<>();
+                failure.completeExceptionally(cause);
+                return failure;
+            }
+            resolved.forEach((artifact, version) -> {
+                if (VersionCache.isRange(artifact.version())) {
+                    versions.put(artifact, version);
+                }
+                result.put(artifact, version);
+            });
+            return CompletableFuture.completedFuture(result);
+        }).thenCompose(f -> f);
+    }
+
+    private CompletableFuture<Map<ArtifactDescriptor, String>> resolveEach(
+            List<ArtifactDescriptor> artifacts, Map<ArtifactDescriptor, String> result) {
+        Map<ArtifactDescriptor, CompletableFuture<String>> lookups = new LinkedHashMap<>();
+        artifacts.forEach(a -> lookups.put(a, resolveVersion(a)));
+        // Wait for all lookups, so that each failure gets cached before the first one is reported
+        return CompletableFuture
+                .allOf(lookups.values().toArray(new CompletableFuture<?>[lookups.size()]))
+                .thenApply(v -> {
+                    lookups.forEach((a, f) -> result.put(a, f.join()));
+                    return result;
+                });
+    }
+
+    protected boolean isOutdated(ArtifactDescriptor artifact, File file) {
+        return plans.isOutdated(artifact, file);
+    }
+
+    private boolean isServedStale(ArtifactDescriptor artifact, File artifactRoot) {
+        // Plans of local archives expire because their manifest changed; never serve those
+        return refresher != null && !(artifact instanceof LocalArtifactDescriptor)
+                && refresher.isServable(artifactRoot);
+    }
+
+    private Optional<CompletableFuture<ArtifactDescriptor>> readTree(
+            ArtifactDescriptor artifact) {
+        File artifactRoot = plans.createPlanFile(artifact, false);
+        boolean outdated = artifactRoot.exists() && isOutdated(artifact, artifactRoot);
+        if (artifactRoot.exists() && (!outdated || isServedStale(artifact, artifactRoot))) {
+            Optional<ArtifactDescriptor> planDependencies = plans.readTreeFromPlan(artifactRoot);
+            if (planDependencies.isPresent()) {
+                if (outdated) {
+                    refresher.refresh(artifactRoot, () -> delegate.resolveRugs(artifact)
+                            .thenAccept(tree -> plans.writeTreeToPlan(artifact, tree)));
+                }
+                return planDependencies.map(CompletableFuture::completedFuture);
+            }
+        }
+        else if (artifactRoot.exists() && artifact instanceof LocalArtifactDescriptor) {
+            // Only resolve what changed in the manifest since the tree got cached
+            Optional<LocalTreeDiff> diff = plans.readTreeDiffFromPlan(artifact);
+            if (diff.isPresent()) {
+                ArtifactDescriptor added = diff.get().added();
+                return Optional.of((added != null ? delegate.resolveRugs(added)
+                        : CompletableFuture.<ArtifactDescriptor> completedFuture(null))
+                                .thenApply(addedTree -> {
+                                    ArtifactDescriptor tree = diff.get().splice(addedTree);
+                                    plans.writeTreeToPlan(artifact, tree);
+                                    return tree;
+                                }));
+            }
+        }
+
+        // In any case, delete the plan file before attempting to resolve dependencies as otherwise
+        // we end up with stale dependencies in case of resolution errors.
+        FileUtils.deleteQuietly(artifactRoot);
+        return Optional.empty();
+    }
+}
@@ -1,22 +1,16 @@
 package com.atomist.rug.resolver;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.io.FileUtils;
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.introspector.BeanAccess;
-
-import com.atomist.rug.resolver.manifest.Manifest;
 
 /**
  * {@link DependencyResolver} that adds caching semantics on top of a wrapped
@@ -25,44 +19,76 @@ import com.atomist.rug.resolver.manifest.Manifest;
  * This implementation caches resolution results for calls to
  * {@link #resolveTransitiveDependencies(ArtifactDescriptor)} and
  * {@link #resolveVersion(ArtifactDescriptor)} for up to two hours after which a re-resolution is
- * attempted again.
+ * attempted again. Versions are cached for <code>latest</code> and any version range; failed
+ * version lookups are remembered for a minute.
  * </p>
  * In case a <code>package.json</code> or <code>manifest.yml</code> is changed, the cached
  * resolution
- * result will get discarded and a new resolution is triggered.
+ * result will get discarded and a new resolution is triggered. Cached rug trees of local archives
+ * are updated instead: only added or changed dependencies are resolved and spliced into the tree.
+ * </p>
+ * If constructed with a refresh {@link Executor}, expired plans of remote archives are returned
+ * right away while a refresh runs on the executor and swaps the plan once it completes. Refreshes
+ * block on the wrapped resolver, so the executor has to be dedicated to them. Plans expired for
+ * more than a day, e.g. because their refreshes keep failing, are resolved again instead.
  */
 public class CachingDependencyResolver implements DependencyResolver {
 
-    // Name of the resolver plan
-    private static final String LOCAL_PLAN_TREE_FILE_NAME = "_local_resolver.tree";
-    private static final String LOCAL_PLAN_FILE_NAME = "_local_resolver.plan";
-    private static final String PLAN_TREE_FILE_NAME = "_resolver.tree";
-    private static final String PLAN_FILE_NAME = "_resolver.plan";
-    // Default timeout 2 hours
-    private static final long TIMEOUT = 1000 * 60 * 60 * 2;
-
-    private static final String VERSION_FILE_NAME = "_resolver.version";
-
     private DependencyResolver delegate;
-    private String repoHome;
+    private ResolverPlanStore plans;
+    private PlanRefresher refresher;
+    private VersionCache versions;
 
     public CachingDependencyResolver(DependencyResolver delegate) {
         this(delegate, System.getProperty("user.home"));
     }
 
     public CachingDependencyResolver(DependencyResolver delegate, String repoHome) {
+        this(delegate, repoHome, VersionCache.TIMEOUT, VersionCache.NEGATIVE_TIMEOUT);
+    }
+
+    /**
+     * Creates a resolver that refreshes expired plans on the given executor. Refreshes call the
+     * wrapped resolver and wait for it, so the executor must not be one the wrapped resolver
+     * runs its own tasks on, like the <code>maven-resolver-pool</code> of
+     * <code>MavenBasedDependencyResolver</code>: a refresh would wait for tasks queued behind
+     * it. Use {@link CachingAsyncDependencyResolver} to refresh without blocking a thread.
+     */
+    public CachingDependencyResolver(DependencyResolver delegate, String repoHome,
+            Executor refreshExecutor) {
+        this(delegate, repoHome, VersionCache.TIMEOUT, VersionCache.NEGATIVE_TIMEOUT,
+                refreshExecutor);
+    }
+
+    public CachingDependencyResolver(DependencyResolver delegate, String repoHome,
+            long versionTimeout, long negativeVersionTimeout) {
+        this(delegate, repoHome, versionTimeout, negativeVersionTimeout, null);
+    }
+
+    public CachingDependencyResolver(DependencyResolver delegate, String repoHome,
+            long versionTimeout, long negativeVersionTimeout, Executor refreshExecutor) {
         this.delegate = delegate;
-        this.repoHome = repoHome;
+        this.plans = new ResolverPlanStore(repoHome);
+        this.refresher = (refreshExecutor != null ? new PlanRefresher(refreshExecutor) : null);
+        this.versions = new VersionCache(repoHome, versionTimeout, negativeVersionTimeout);
     }
 
     @Override
     public List<ArtifactDescriptor> resolveDependencies(ArtifactDescriptor artifact,
             DependencyVerifier... verifiers) throws DependencyResolverException {
-        File artifactRoot = createPlanFile(artifact, true);
-        if (artifactRoot.exists() && !isOutdated(artifact, artifactRoot)) {
-            Optional<List<ArtifactDescriptor>> planDependencies = readDependenciesFromPlan(
-                    artifactRoot);
+        File artifactRoot = plans.createPlanFile(artifact, true);
+        boolean outdated = artifactRoot.exists() && isOutdated(artifact, artifactRoot);
+        if (artifactRoot.exists() && (!outdated || isServedStale(artifact, artifactRoot))) {
+            Optional<List<ArtifactDescriptor>> planDependencies = plans
+                    .readDependenciesFromPlan(artifactRoot);
             if (planDependencies.isPresent()) {
+                if (outdated) {
+                    refresher.refresh(artifactRoot, () -> {
+                        plans.writeDependenciesToPlan(
+                                delegate.resolveDependencies(artifact, verifiers), artifactRoot);
+                        return CompletableFuture.completedFuture(null);
+                    });
+                }
                 return planDependencies.get();
             }
         }
@@ -72,207 +98,151 @@ public class CachingDependencyResolver implements DependencyResolver {
         FileUtils.deleteQuietly(artifactRoot);
 
         List<ArtifactDescriptor> dependencies = delegate.resolveDependencies(artifact, verifiers);
-        writeDependenciesToPlan(dependencies, artifactRoot);
+        plans.writeDependenciesToPlan(dependencies, artifactRoot);
         return dependencies;
     }
 
     @Override
     public ArtifactDescriptor resolveRugs(ArtifactDescriptor artifact)
             throws DependencyResolverException {
-        File artifactRoot = createPlanFile(artifact, false);
-        if (artifactRoot.exists() && !isOutdated(artifact, artifactRoot)) {
-            Optional<ArtifactDescriptor> planDependencies = readTreeFromPlan(artifactRoot);
-            if (planDependencies.isPresent()) {
-                return planDependencies.get();
-            }
+        Optional<ArtifactDescriptor> planDependencies = readTree(artifact);
+        if (planDependencies.isPresent()) {
+            return planDependencies.get();
         }
 
-        // In any case, delete the plan file before attempting to resolve dependencies as otherwise
-        // we end up with stale dependencies in case of resolution errors.
-        FileUtils.deleteQuietly(artifactRoot);
-
-        artifact = delegate.resolveRugs(artifact);
-        writeTreeToPlan(artifact, artifactRoot);
-        return artifact;
+        ArtifactDescriptor tree = delegate.resolveRugs(artifact);
+        plans.writeTreeToPlan(artifact, tree);
+        return tree;
     }
 
     @Override
-    public String resolveVersion(ArtifactDescriptor artifact) throws DependencyResolverException {
-        if ("latest".equals(artifact.version())) {
-            File artifactRoot = createVersionFile(artifact);
-            if (artifactRoot.exists() && !isOutdated(artifact, artifactRoot)) {
-                Optional<String> version = readVersionFromVersion(artifactRoot);
-                if (version.isPresent()) {
-                    return version.get();
-                }
+    public List<ArtifactDescriptor> resolveRugs(Collection<ArtifactDescriptor> artifacts)
+            throws DependencyResolverException {
+        List<ArtifactDescriptor> trees = new ArrayList<>();
+        List<ArtifactDescriptor> misses = new ArrayList<>();
+        for (ArtifactDescriptor artifact : artifacts) {
+            Optional<ArtifactDescriptor> planDependencies = readTree(artifact);
+            trees.add(planDependencies.orElse(null));
+            if (!planDependencies.isPresent()) {
+                misses.add(artifact);
             }
-
-            FileUtils.deleteQuietly(artifactRoot);
-
-            String version = delegate.resolveVersion(artifact);
-            writeVersionToVersion(version, artifactRoot);
-            return version;
         }
-        return delegate.resolveVersion(artifact);
-    }
 
-    private File createPlanFile(ArtifactDescriptor artifact, boolean dependencies) {
-        File repoRoot = new File(repoHome);
-        File artifactRoot = new File(repoRoot, artifact.group().replace(".", File.separator)
-                + File.separator + artifact.artifact() + File.separator + artifact.version());
-        if (!artifactRoot.exists()) {
-            artifactRoot.mkdirs();
-        }
-        if (dependencies) {
-            if (artifact instanceof LocalArtifactDescriptor) {
-                return new File(artifactRoot, LOCAL_PLAN_FILE_NAME);
-            }
-            else {
-                return new File(artifactRoot, PLAN_FILE_NAME);
-            }
-        }
-        else {
-            if (artifact instanceof LocalArtifactDescriptor) {
-                return new File(artifactRoot, LOCAL_PLAN_TREE_FILE_NAME);
-            }
-            else {
-                return new File(artifactRoot, PLAN_TREE_FILE_NAME);
+        // Hand all archives without a valid plan to the delegate at once so it can share work
+        if (!misses.isEmpty()) {
+            List<ArtifactDescriptor> resolved = delegate.resolveRugs(misses);
+            for (int i = 0, j = 0; i < trees.size(); i++) {
+                if (trees.get(i) == null) {
+                    ArtifactDescriptor tree = resolved.get(j);
+                    plans.writeTreeToPlan(misses.get(j++), tree);
+                    trees.set(i, tree);
+                }
             }
         }
+        return trees;
     }
 
-    private File createVersionFile(ArtifactDescriptor artifact) {
-        File repoRoot = new File(repoHome);
-        File artifactRoot = new File(repoRoot, artifact.group().replace(".", File.separator)
-                + File.separator + artifact.artifact() + File.separator + VERSION_FILE_NAME);
-        if (!artifactRoot.exists()) {
-            artifactRoot.mkdirs();
-        }
-        return artifactRoot;
-    }
-
-    private Optional<List<ArtifactDescriptor>> readDependenciesFromPlan(File artifactRoot) {
-        List<ArtifactDescriptor> dependencies = null;
-        try (InputStreamReader isr = new InputStreamReader(new FileInputStream(artifactRoot))) {
-            BufferedReader br = new BufferedReader(isr);
-            dependencies = new ArrayList<>();
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("#");
-                dependencies.add(new DefaultArtifactDescriptor(parts[0], parts[1], parts[2],
-                        ArtifactDescriptorFactory.toExtension(parts[3]),
-                        ArtifactDescriptor.Scope.COMPILE, parts[4]));
+    @Override
+    public String resolveVersion(ArtifactDescriptor artifact) throws DependencyResolverException {
+        if (VersionCache.isRange(artifact.version())) {
+            Optional<String> cachedVersion = versions.get(artifact);
+            if (cachedVersion.isPresent()) {
+                return cachedVersion.get();
             }
-        }
-        catch (FileNotFoundException e) {
-            // At this time we know the file exists
-        }
-        catch (IOException e) {
-            // Fine, just move on with no plan
-        }
-        return validateDependenciesFromPlan(Optional.ofNullable(dependencies));
-    }
-
-    private Optional<ArtifactDescriptor> readTreeFromPlan(File artifactRoot) {
-        try (InputStream is = new FileInputStream(artifactRoot)) {
-            Yaml yaml = new Yaml();
-            yaml.setBeanAccess(BeanAccess.FIELD);
-            return Optional.of(yaml.loadAs(is, DefaultArtifactDescriptor.class));
-        }
-        catch (FileNotFoundException e) {
-            // At this time we know the file exists
-        }
-        catch (IOException e) {
-            // Fine, just move on with no plan
-        }
-        return Optional.empty();
-    }
 
-    private Optional<String> readVersionFromVersion(File artifactRoot) {
-        try (InputStreamReader isr = new InputStreamReader(new FileInputStream(artifactRoot))) {
-            BufferedReader br = new BufferedReader(isr);
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                return Optional.of(line);
+            try {
+                String version = delegate.resolveVersion(artifact);
+                versions.put(artifact, version);
+                return version;
+            }
+            catch (DependencyResolverException e) {
+                versions.putFailure(artifact, e);
+                throw e;
             }
         }
-        catch (FileNotFoundException e) {
-            // At this time we know the file exists
-        }
-        catch (IOException e) {
-            // Fine, just move on with no plan
-        }
-        return Optional.empty();
+        return delegate.resolveVersion(artifact);
     }
 
-    private Optional<List<ArtifactDescriptor>> validateDependenciesFromPlan(
-            Optional<List<ArtifactDescriptor>> dependencies) {
-        if (dependencies.isPresent()) {
-            Optional<ArtifactDescriptor> missingArtifact = dependencies.get().stream()
-                    .filter(d -> !new File(d.uri()).exists()).findAny();
-            if (missingArtifact.isPresent()) {
-                return Optional.empty();
+    @Override
+    public Map<ArtifactDescriptor, String> resolveVersions(
+            Collection<ArtifactDescriptor> artifacts) throws DependencyResolverException {
+        Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+        List<ArtifactDescriptor> misses = new ArrayList<>();
+        for (ArtifactDescriptor artifact : artifacts) {
+            Optional<String> cachedVersion = (VersionCache.isRange(artifact.version())
+                    ? versions.get(artifact) : Optional.empty());
+            result.put(artifact, cachedVersion.orElse(null));
+            if (!cachedVersion.isPresent()) {
+                misses.add(artifact);
             }
         }
-        return dependencies;
-    }
 
-    private void writeDependenciesToPlan(List<ArtifactDescriptor> dependencies, File artifactRoot) {
-        try (FileWriter writer = new FileWriter(artifactRoot)) {
-            dependencies.forEach(d -> {
-                try {
-                    writer.write(d.group() + "#" + d.artifact() + "#" + d.version() + "#"
-                            + d.extension().toString().toLowerCase() + "#" + d.uri().toString()
-                            + "\n");
+        if (!misses.isEmpty()) {
+            Map<ArtifactDescriptor, String> resolved;
+            try {
+                resolved = delegate.resolveVersions(misses);
+            }
+            catch (DependencyResolverTimeoutException e) {
+                throw e;
+            }
+            catch (DependencyResolverException e) {
+                // The batch doesn't tell which range failed; look them up one by one so that
+                // failures are remembered per range like single lookups
+                for (ArtifactDescriptor artifact : misses) {
+                    result.put(artifact, resolveVersion(artifact));
                 }
-                catch (IOException e) {
+                return result;
+            }
+            resolved.forEach((artifact, version) -> {
+                if (VersionCache.isRange(artifact.version())) {
+                    versions.put(artifact, version);
                 }
+                result.put(artifact, version);
             });
-            writer.flush();
-        }
-        catch (IOException e) {
-            // Something went wrong, just delete the plan file
-            artifactRoot.delete();
         }
+        return result;
     }
 
-    private void writeTreeToPlan(ArtifactDescriptor artifact, File artifactRoot) {
-        try (FileWriter writer = new FileWriter(artifactRoot)) {
-            Yaml yaml = new Yaml();
-            yaml.setBeanAccess(BeanAccess.FIELD);
-            yaml.dump(artifact, writer);
-            writer.flush();
-        }
-        catch (IOException e) {
-            // Something went wrong, just delete the plan file
-            artifactRoot.delete();
-        }
+    protected boolean isOutdated(ArtifactDescriptor artifact, File file) {
+        return plans.isOutdated(artifact, file);
     }
 
-    private void writeVersionToVersion(String version, File artifactRoot) {
-        try (FileWriter writer = new FileWriter(artifactRoot)) {
-            try {
-                writer.write(version + "\n");
-            }
-            catch (IOException e) {
+    private boolean isServedStale(ArtifactDescriptor artifact, File artifactRoot) {
+        // Plans of local archives expire because their manifest changed; never serve those
+        return refresher != null && !(artifact instanceof LocalArtifactDescriptor)
+                && refresher.isServable(artifactRoot);
+    }
+
+    private Optional<ArtifactDescriptor> readTree(ArtifactDescriptor artifact) {
+        File artifactRoot = plans.createPlanFile(artifact, false);
+        boolean outdated = artifactRoot.exists() && isOutdated(artifact, artifactRoot);
+        if (artifactRoot.exists() && (!outdated || isServedStale(artifact, artifactRoot))) {
+            Optional<ArtifactDescriptor> planDependencies = plans.readTreeFromPlan(artifactRoot);
+            if (planDependencies.isPresent()) {
+                if (outdated) {
+                    refresher.refresh(artifactRoot, () -> {
+                        plans.writeTreeToPlan(artifact, delegate.resolveRugs(artifact));
+                        return CompletableFuture.completedFuture(null);
+                    });
+                }
+                return planDependencies;
             }
-            writer.flush();
         }
-        catch (IOException e) {
-            // Something went wrong, just delete the plan file
-            artifactRoot.delete();
+        else if (artifactRoot.exists() && artifact instanceof LocalArtifactDescriptor) {
+            // Only resolve what changed in the manifest since the tree got cached
+            Optional<LocalTreeDiff> diff = plans.readTreeDiffFromPlan(artifact);
+            if (diff.isPresent()) {
+                ArtifactDescriptor added = diff.get().added();
+                ArtifactDescriptor tree = diff.get()
+                        .splice(added != null ? delegate.resolveRugs(added) : null);
+                plans.writeTreeToPlan(artifact, tree);
+                return Optional.of(tree);
+            }
         }
-    }
 
-    protected boolean isOutdated(ArtifactDescriptor artifact, File file) {
-        if (artifact instanceof LocalArtifactDescriptor) {
-            File manifestYml = new File(new File(artifact.uri()),
-                    Manifest.ATOMIST_ROOT + File.separator + Manifest.FILE_NAME);
-            File packageJson = new File(new File(artifact.uri()),
-                    Manifest.ATOMIST_ROOT + File.separator + "package.json");
-            return (manifestYml.exists() && manifestYml.lastModified() > file.lastModified())
-                    || (packageJson.exists() && packageJson.lastModified() > file.lastModified());
-        }
-        return System.currentTimeMillis() - file.lastModified() > TIMEOUT;
+        // In any case, delete the plan file before attempting to resolve dependencies as otherwise
+        // we end up with stale dependencies in case of resolution errors.
+        FileUtils.deleteQuietly(artifactRoot);
+        return Optional.empty();
     }
 }
@@ -0,0 +1,255 @@
+package com.atomist.rug.resolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+/**
+ * Compact read-only view of resolved dependency trees for very large resolutions.
+ * </p>
+ * Every distinct node of the trees gets an int id. Edges are stored as compressed sparse rows in
+ * int arrays, in both directions, and coordinates are indexes into a shared string table, so that
+ * an edge costs one int rather than an object reference plus list overhead. Ids are in
+ * topological order: dependencies always have lower ids than the nodes depending on them.
+ */
+public final class CompactDependencyGraph {
+
+    private static final int GROUP = 0;
+    private static final int ARTIFACT = 1;
+    private static final int VERSION = 2;
+    private static final int CLASSIFIER = 3;
+    private static final int URI = 4;
+    private static final int FIELDS = 5;
+    // values() returns a new array on every call
+    private static final Extension[] EXTENSIONS = Extension.values();
+    private static final Scope[] SCOPES = Scope.values();
+
+    private final int[] childOffsets;
+    private final int[] children;
+    private final int[] coordinates;
+    private final byte[] extensions;
+    private final int[] parentOffsets;
+    private final int[] parents;
+    private final int[] roots;
+    private final byte[] scopes;
+    private final String[] strings;
+
+    private CompactDependencyGraph(Builder builder) {
+        int size = builder.size;
+        this.strings = builder.strings.toArray(new String[builder.strings.size()]);
+        this.coordinates = Arrays.copyOf(builder.coordinates, size * FIELDS);
+        this.extensions = Arrays.copyOf(builder.extensions, size);
+        this.scopes = Arrays.copyOf(builder.scopes, size);
+        this.childOffsets = Arrays.copyOf(builder.childOffsets, size + 1);
+        this.children = Arrays.copyOf(builder.children, builder.edges);
+        this.roots = builder.roots;
+
+        // Reverse the edges into parent rows
+        this.parentOffsets = new int[size + 1];
+        for (int i = 0; i < children.length; i++) {
+            parentOffsets[children[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            parentOffsets[i + 1] += parentOffsets[i];
+        }
+        this.parents = new int[children.length];
+        int[] next = Arrays.copyOf(parentOffsets, size);
+        for (int node = 0; node < size; node++) {
+            for (int i = childOffsets[node]; i < childOffsets[node + 1]; i++) {
+                parents[next[children[i]]++] = node;
+            }
+        }
+    }
+
+    public static CompactDependencyGraph of(ArtifactDescriptor root) {
+        return of(Collections.singletonList(root));
+    }
+
+    /**
+     * Returns the graph of the given trees; nodes shared between or within them are stored once.
+     */
+    public static CompactDependencyGraph of(List<? extends ArtifactDescriptor> roots) {
+        Builder builder = new Builder();
+        builder.roots = roots.stream().mapToInt(builder::add).toArray();
+        return new CompactDependencyGraph(builder);
+    }
+
+    public String artifact(int node) {
+        return string(node, ARTIFACT);
+    }
+
+    public int child(int node, int index) {
+        return children[childOffsets[node] + index];
+    }
+
+    public int childCount(int node) {
+        return childOffsets[node + 1] - childOffsets[node];
+    }
+
+    public int[] children(int node) {
+        return Arrays.copyOfRange(children, childOffsets[node], childOffsets[node + 1]);
+    }
+
+    public String classifier(int node) {
+        return string(node, CLASSIFIER);
+    }
+
+    public int edges() {
+        return children.length;
+    }
+
+    public Extension extension(int node) {
+        return EXTENSIONS[extensions[node]];
+    }
+
+    public String group(int node) {
+        return string(node, GROUP);
+    }
+
+    public int parent(int node, int index) {
+        return parents[parentOffsets[node] + index];
+    }
+
+    public int parentCount(int node) {
+        return parentOffsets[node + 1] - parentOffsets[node];
+    }
+
+    public int[] parents(int node) {
+        return Arrays.copyOfRange(parents, parentOffsets[node], parentOffsets[node + 1]);
+    }
+
+    public int[] roots() {
+        return roots.clone();
+    }
+
+    public Scope scope(int node) {
+        return SCOPES[scopes[node]];
+    }
+
+    public int size() {
+        return extensions.length;
+    }
+
+    /**
+     * Returns the tree below the given node; shared nodes become shared descriptors.
+     */
+    public ArtifactDescriptor toArtifactDescriptor(int node) {
+        return build(node, new ArtifactDescriptor[size()]);
+    }
+
+    /**
+     * Returns the trees of all roots in the order the graph was created from.
+     */
+    public List<ArtifactDescriptor> toArtifactDescriptors() {
+        ArtifactDescriptor[] built = new ArtifactDescriptor[size()];
+        List<ArtifactDescriptor> trees = new ArrayList<>(roots.length);
+        for (int root : roots) {
+            trees.add(build(root, built));
+        }
+        return trees;
+    }
+
+    public String uri(int node) {
+        return string(node, URI);
+    }
+
+    public String version(int node) {
+        return string(node, VERSION);
+    }
+
+    private ArtifactDescriptor build(int node, ArtifactDescriptor[] built) {
+        if (built[node] == null) {
+            List<ArtifactDescriptor> dependencies = new ArrayList<>(childCount(node));
+            for (int i = childOffsets[node]; i < childOffsets[node + 1]; i++) {
+                dependencies.add(build(children[i], built));
+            }
+            built[node] = ImmutableArtifactDescriptor.of(group(node), artifact(node),
+                    version(node), extension(node), scope(node), classifier(node), uri(node),
+                    dependencies);
+        }
+        return built[node];
+    }
+
+    private String string(int node, int field) {
+        int index = coordinates[node * FIELDS + field];
+        return (index >= 0 ? strings[index] : null);
+    }
+
+    private static class Builder {
+
+        private int[] childOffsets = new int[16];
+        private int[] children = new int[16];
+        private int[] coordinates = new int[16 * FIELDS];
+        private int edges = 0;
+        private byte[] extensions = new byte[16];
+        private final Map<ArtifactDescriptor, Integer> ids = new IdentityHashMap<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int[] roots;
+        private byte[] scopes = new byte[16];
+        private int size = 0;
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * Adds the given node after its dependencies, which gives the ids their topological
+         * order.
+         */
+        private int add(ArtifactDescriptor artifact) {
+            Integer id = ids.get(artifact);
+            if (id != null) {
+                return id;
+            }
+            int[] dependencies = artifact.dependencies().stream().mapToInt(this::add).toArray();
+
+            int node = size++;
+            ensureCapacity(size);
+            coordinates[node * FIELDS + GROUP] = index(artifact.group());
+            coordinates[node * FIELDS + ARTIFACT] = index(artifact.artifact());
+            coordinates[node * FIELDS + VERSION] = index(artifact.version());
+            coordinates[node * FIELDS + CLASSIFIER] = index(artifact.classifier());
+            coordinates[node * FIELDS + URI] = index(artifact.uri());
+            extensions[node] = (byte) artifact.extension().ordinal();
+            scopes[node] = (byte) artifact.scope().ordinal();
+
+            if (children.length < edges + dependencies.length) {
+                children = Arrays.copyOf(children,
+                        Math.max(children.length * 2, edges + dependencies.length));
+            }
+            System.arraycopy(dependencies, 0, children, edges, dependencies.length);
+            childOffsets[node] = edges;
+            edges += dependencies.length;
+            childOffsets[node + 1] = edges;
+
+            ids.put(artifact, node);
+            return node;
+        }
+
+        private void ensureCapacity(int size) {
+            if (extensions.length < size) {
+                int capacity = extensions.length * 2;
+                coordinates = Arrays.copyOf(coordinates, capacity * FIELDS);
+                extensions = Arrays.copyOf(extensions, capacity);
+                scopes = Arrays.copyOf(scopes, capacity);
+            }
+            if (childOffsets.length < size + 1) {
+                childOffsets = Arrays.copyOf(childOffsets, childOffsets.length * 2);
+            }
+        }
+
+        private int index(String string) {
+            if (string == null) {
+                return -1;
+            }
+            return indexes.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.atomist.rug.resolver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+/**
+ * Index over resolved trees by coordinates, extension and scope, with parent links for ancestor
+ * path queries, so that repeated lookups don't traverse the whole tree.
+ * </p>
+ * The index is built on the first query. Trees of {@link ImmutableArtifactDescriptor}s carry
+ * their index, so that {@link #of(ArtifactDescriptor)} returns the same index for them every
+ * time; indexes of mutable trees don't reflect later changes.
+ */
+public class DependencyIndex {
+
+    private final List<ArtifactDescriptor> roots;
+    private volatile Index index;
+
+    private DependencyIndex(List<ArtifactDescriptor> roots) {
+        this.roots = roots;
+    }
+
+    public static DependencyIndex of(ArtifactDescriptor root) {
+        if (root instanceof ImmutableArtifactDescriptor) {
+            return ((ImmutableArtifactDescriptor) root).index();
+        }
+        return new DependencyIndex(Collections.singletonList(root));
+    }
+
+    public static DependencyIndex of(List<ArtifactDescriptor> roots) {
+        return new DependencyIndex(new ArrayList<>(roots));
+    }
+
+    /**
+     * Returns the distinct ancestors of the given node, nearest first; empty for roots and nodes
+     * not in the trees.
+     */
+    public Set<ArtifactDescriptor> ancestors(ArtifactDescriptor artifact) {
+        Index index = index();
+        Integer node = index.ids.get(artifact);
+        if (node == null) {
+            return Collections.emptySet();
+        }
+        Set<ArtifactDescriptor> ancestors = new LinkedHashSet<>();
+        Queue<Integer> queue = new ArrayDeque<>(index.parents.get(node));
+        while (!queue.isEmpty()) {
+            int parent = queue.poll();
+            if (ancestors.add(index.nodes.get(parent))) {
+                queue.addAll(index.parents.get(parent));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Returns the node matching the given coordinates, as
+     * {@link ArtifactDescriptor#match(String, String, String, Extension)} would, that is closest
+     * to a root.
+     */
+    public Optional<ArtifactDescriptor> find(String group, String artifact, String version,
+            Extension extension) {
+        List<ArtifactDescriptor> matches = index().byCoordinates
+                .get(key(group, artifact, version, extension));
+        return (matches != null ? Optional.of(matches.get(0)) : Optional.empty());
+    }
+
+    /**
+     * Returns the nodes of the given artifact in any version and with any extension.
+     */
+    public List<ArtifactDescriptor> findAll(String group, String artifact) {
+        return unmodifiable(index().byArtifact.get(key(group, artifact)));
+    }
+
+    public List<ArtifactDescriptor> findAll(Extension extension) {
+        return unmodifiable(index().byExtension.get(extension));
+    }
+
+    public List<ArtifactDescriptor> findAll(Scope scope) {
+        return unmodifiable(index().byScope.get(scope));
+    }
+
+    /**
+     * Returns a shortest path from a root to the given node, both included; empty if the node is
+     * not in the trees.
+     */
+    public List<ArtifactDescriptor> pathTo(ArtifactDescriptor artifact) {
+        Index index = index();
+        Integer node = index.ids.get(artifact);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        // Nodes are numbered in breadth-first order, so the lowest parent is closest to a root
+        List<ArtifactDescriptor> path = new ArrayList<>();
+        int current = node;
+        path.add(index.nodes.get(current));
+        while (current >= index.roots) {
+            current = Collections.min(index.parents.get(current));
+            path.add(index.nodes.get(current));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    public int size() {
+        return index().nodes.size();
+    }
+
+    private Index index() {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = new Index(roots);
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static String key(String group, String artifact) {
+        return group + ":" + artifact;
+    }
+
+    private static String key(String group, String artifact, String version,
+            Extension extension) {
+        return group + ":" + artifact + ":" + version + ":" + extension;
+    }
+
+    private static List<ArtifactDescriptor> unmodifiable(List<ArtifactDescriptor> nodes) {
+        return (nodes != null ? Collections.unmodifiableList(nodes) : Collections.emptyList());
+    }
+
+    private static class Index {
+
+        private final Map<String, List<ArtifactDescriptor>> byArtifact = new HashMap<>();
+        private final Map<String, List<ArtifactDescriptor>> byCoordinates = new HashMap<>();
+        private final Map<Extension, List<ArtifactDescriptor>> byExtension = new EnumMap<>(
+                Extension.class);
+        private final Map<Scope, List<ArtifactDescriptor>> byScope = new EnumMap<>(Scope.class);
+        private final Map<ArtifactDescriptor, Integer> ids = new IdentityHashMap<>();
+        private final List<ArtifactDescriptor> nodes = new ArrayList<>();
+        private final List<List<Integer>> parents = new ArrayList<>();
+        private final int roots;
+
+        public Index(List<ArtifactDescriptor> roots) {
+            // Breadth-first, so that nodes closer to a root come first
+            Queue<ArtifactDescriptor> queue = new ArrayDeque<>();
+            roots.forEach(r -> add(r, queue));
+            this.roots = nodes.size();
+            while (!queue.isEmpty()) {
+                ArtifactDescriptor artifact = queue.poll();
+                int id = ids.get(artifact);
+                for (ArtifactDescriptor dependency : artifact.dependencies()) {
+                    parents.get(add(dependency, queue)).add(id);
+                }
+            }
+        }
+
+        private int add(ArtifactDescriptor artifact, Queue<ArtifactDescriptor> queue) {
+            Integer id = ids.get(artifact);
+            if (id != null) {
+                return id;
+            }
+            id = nodes.size();
+            ids.put(artifact, id);
+            nodes.add(artifact);
+            parents.add(new ArrayList<>(1));
+            queue.add(artifact);
+
+            byArtifact.computeIfAbsent(key(artifact.group(), artifact.artifact()),
+                    k -> new ArrayList<>()).add(artifact);
+            byCoordinates.computeIfAbsent(key(artifact.group(), artifact.artifact(),
+                    artifact.version(), artifact.extension()), k -> new ArrayList<>())
+                    .add(artifact);
+            byExtension.computeIfAbsent(artifact.extension(), k -> new ArrayList<>())
+                    .add(artifact);
+            if (artifact.scope() != null) {
+                byScope.computeIfAbsent(artifact.scope(), k -> new ArrayList<>()).add(artifact);
+            }
+            return id;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.atomist.rug.resolver;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public interface DependencyResolver {
 
@@ -9,7 +14,30 @@ public interface DependencyResolver {
 
     ArtifactDescriptor resolveRugs(ArtifactDescriptor artifact) throws DependencyResolverException;
 
+    /**
+     * Resolves the rug trees of several archives; the returned trees are in the order of the
+     * given archives. Implementations may collect the archives together to share work.
+     */
+    default List<ArtifactDescriptor> resolveRugs(Collection<ArtifactDescriptor> artifacts)
+            throws DependencyResolverException {
+        return artifacts.stream().map(a -> resolveRugs(a)).collect(Collectors.toList());
+    }
+
     String resolveVersion(ArtifactDescriptor artifact) throws DependencyResolverException;
+
+    /**
+     * Resolves the versions of several archives; archives asking for the same version of the same
+     * group and artifact are only resolved once. The returned map is in the order of the given
+     * archives.
+     */
+    default Map<ArtifactDescriptor, String> resolveVersions(
+            Collection<ArtifactDescriptor> artifacts) throws DependencyResolverException {
+        Map<String, String> versions = new HashMap<>();
+        Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+        artifacts.forEach(a -> result.put(a, versions.computeIfAbsent(
+                a.group() + ":" + a.artifact() + ":" + a.version(), k -> resolveVersion(a))));
+        return result;
+    }
     
     default void addDependencyVerificationListener(DependencyVerificationListener listener) {
         // no op
@@ -0,0 +1,13 @@
+package com.atomist.rug.resolver;
+
+/**
+ * {@link Exception} indicating a resolution did not complete within its deadline
+ */
+public class DependencyResolverTimeoutException extends DependencyResolverException {
+
+    private static final long serialVersionUID = 3093485226563542761L;
+
+    public DependencyResolverTimeoutException(String msg) {
+        super(msg);
+    }
+}
@@ -1,11 +1,31 @@
 package com.atomist.rug.resolver;
 
+import java.util.concurrent.CancellationException;
+
+/**
+ * Receives events of dependency verifications. Each {@link #starting} is followed by exactly one
+ * of {@link #succeeded}, {@link #failed} or {@link #cancelled} for the same artifact, raised on the
+ * same thread.
+ * <p>
+ * Verifications of different artifacts run concurrently on the resolver's pool, so
+ * implementations must be thread-safe.
+ */
 public interface DependencyVerificationListener {
-    
+
     void starting(String group, String artifact, String version);
-    
+
     void succeeded(String group, String artifact, String version);
-    
+
     void failed(String group, String artifact, String version, Exception e);
 
+    /**
+     * Raised instead of {@link #failed} if the resolution got cancelled while verifying, e.g.
+     * because another artifact failed verification. Reports a failure caused by a
+     * {@link CancellationException} unless overridden.
+     */
+    default void cancelled(String group, String artifact, String version) {
+        failed(group, artifact, version, new CancellationException(
+                String.format("Verification of %s:%s (%s) cancelled", group, artifact, version)));
+    }
+
 }
@@ -0,0 +1,259 @@
+package com.atomist.rug.resolver;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable {@link ArtifactDescriptor} with value semantics, so that descriptors can be used as
+ * keys of sets and maps.
+ * </p>
+ * Instances are hash-consed: there is only one instance per distinct descriptor, including its
+ * dependencies, which makes identical subtrees share their instances. Coordinates are interned
+ * and the hash is computed once. Instances are kept in a weak pool and get dropped once they are
+ * no longer referenced; the pool doesn't lock, so that concurrent resolutions build their trees
+ * in parallel.
+ */
+public final class ImmutableArtifactDescriptor implements ArtifactDescriptor {
+
+    private static final ReferenceQueue<ImmutableArtifactDescriptor> collected =
+            new ReferenceQueue<>();
+    private static final ConcurrentMap<Interned, Interned> pool = new ConcurrentHashMap<>();
+
+    private final String artifact;
+    private final String classifier;
+    private final List<ArtifactDescriptor> dependencies;
+    private final Extension extension;
+    private final String group;
+    private final int hash;
+    private volatile DependencyIndex index;
+    private final Scope scope;
+    private final String uri;
+    private final String version;
+
+    private ImmutableArtifactDescriptor(String group, String artifact, String version,
+            Extension extension, Scope scope, String classifier, String uri,
+            List<ArtifactDescriptor> dependencies) {
+        this.group = intern(group);
+        this.artifact = intern(artifact);
+        this.version = intern(version);
+        this.extension = extension;
+        this.scope = scope;
+        this.classifier = intern(classifier);
+        this.uri = uri;
+        this.dependencies = dependencies;
+        int hash = Objects.hash(group, artifact, version, extension, scope, classifier, uri);
+        for (ArtifactDescriptor dependency : dependencies) {
+            hash = 31 * hash + dependency.hashCode();
+        }
+        this.hash = hash;
+    }
+
+    public static ImmutableArtifactDescriptor of(String group, String artifact, String version,
+            Extension extension) {
+        return of(group, artifact, version, extension, Scope.COMPILE, null, null,
+                Collections.emptyList());
+    }
+
+    public static ImmutableArtifactDescriptor of(String group, String artifact, String version,
+            Extension extension, Scope scope, String uri,
+            List<? extends ArtifactDescriptor> dependencies) {
+        return of(group, artifact, version, extension, scope, null, uri, dependencies);
+    }
+
+    public static ImmutableArtifactDescriptor of(String group, String artifact, String version,
+            Extension extension, Scope scope, String classifier, String uri,
+            List<? extends ArtifactDescriptor> dependencies) {
+        return of(group, artifact, version, extension, scope, classifier, uri, dependencies,
+                new IdentityHashMap<>());
+    }
+
+    /**
+     * Returns the immutable instance equal to the given descriptor tree; subtrees shared in the
+     * given tree stay shared.
+     */
+    public static ImmutableArtifactDescriptor copyOf(ArtifactDescriptor artifact) {
+        return copyOf(artifact, new IdentityHashMap<>());
+    }
+
+    private static ImmutableArtifactDescriptor copyOf(ArtifactDescriptor artifact,
+            Map<ArtifactDescriptor, ImmutableArtifactDescriptor> copies) {
+        if (artifact instanceof ImmutableArtifactDescriptor) {
+            return (ImmutableArtifactDescriptor) artifact;
+        }
+        ImmutableArtifactDescriptor copy = copies.get(artifact);
+        if (copy == null) {
+            copy = of(artifact.group(), artifact.artifact(), artifact.version(),
+                    artifact.extension(), artifact.scope(), artifact.classifier(), artifact.uri(),
+                    artifact.dependencies(), copies);
+            copies.put(artifact, copy);
+        }
+        return copy;
+    }
+
+    private static ImmutableArtifactDescriptor of(String group, String artifact, String version,
+            Extension extension, Scope scope, String classifier, String uri,
+            List<? extends ArtifactDescriptor> dependencies,
+            Map<ArtifactDescriptor, ImmutableArtifactDescriptor> copies) {
+        List<ArtifactDescriptor> canonical = new ArrayList<>(dependencies.size());
+        dependencies.forEach(d -> canonical.add(copyOf(d, copies)));
+        return intern(new ImmutableArtifactDescriptor(group, artifact, version, extension, scope,
+                classifier, uri, Collections.unmodifiableList(canonical)));
+    }
+
+    private static ImmutableArtifactDescriptor intern(ImmutableArtifactDescriptor artifact) {
+        Reference<? extends ImmutableArtifactDescriptor> reference;
+        while ((reference = collected.poll()) != null) {
+            pool.remove(reference, reference);
+        }
+        Interned candidate = new Interned(artifact, collected);
+        while (true) {
+            Interned existing = pool.putIfAbsent(candidate, candidate);
+            if (existing == null) {
+                return artifact;
+            }
+            ImmutableArtifactDescriptor interned = existing.get();
+            if (interned != null) {
+                return interned;
+            }
+            // Collected but not dequeued yet; replace it
+            pool.remove(existing, existing);
+        }
+    }
+
+    private static String intern(String string) {
+        return (string != null ? string.intern() : null);
+    }
+
+    /**
+     * Returns the lazily built index of this tree; see
+     * {@link DependencyIndex#of(ArtifactDescriptor)}.
+     */
+    DependencyIndex index() {
+        DependencyIndex index = this.index;
+        if (index == null) {
+            index = DependencyIndex.of(Collections.singletonList(this));
+            this.index = index;
+        }
+        return index;
+    }
+
+    @Override
+    public String artifact() {
+        return artifact;
+    }
+
+    @Override
+    public String classifier() {
+        return classifier;
+    }
+
+    @Override
+    public List<ArtifactDescriptor> dependencies() {
+        return dependencies;
+    }
+
+    @Override
+    public Extension extension() {
+        return extension;
+    }
+
+    @Override
+    public String group() {
+        return group;
+    }
+
+    @Override
+    public boolean match(String group, String artifact, String version, Extension extension) {
+        return this.group.equals(group) && this.artifact.equals(artifact)
+                && this.version.equals(version) && this.extension.equals(extension);
+    }
+
+    @Override
+    public Scope scope() {
+        return scope;
+    }
+
+    @Override
+    public String uri() {
+        return uri;
+    }
+
+    @Override
+    public String version() {
+        return version;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ImmutableArtifactDescriptor)) {
+            return false;
+        }
+        ImmutableArtifactDescriptor other = (ImmutableArtifactDescriptor) obj;
+        if (hash != other.hash || dependencies.size() != other.dependencies.size()) {
+            return false;
+        }
+        // Dependencies are interned, so they are equal only if they are the same
+        for (int i = 0; i < dependencies.size(); i++) {
+            if (dependencies.get(i) != other.dependencies.get(i)) {
+                return false;
+            }
+        }
+        return group == other.group && artifact == other.artifact && version == other.version
+                && extension == other.extension && scope == other.scope
+                && classifier == other.classifier && Objects.equals(uri, other.uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s:%s:%s:%s:%s", group, artifact, version, extension, scope,
+                classifier);
+    }
+
+    /**
+     * Weak pool entry; entries are equal if they are the same or their instances are equal.
+     */
+    private static final class Interned extends WeakReference<ImmutableArtifactDescriptor> {
+
+        private final int hash;
+
+        Interned(ImmutableArtifactDescriptor artifact,
+                ReferenceQueue<ImmutableArtifactDescriptor> queue) {
+            super(artifact, queue);
+            this.hash = artifact.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Interned)) {
+                return false;
+            }
+            ImmutableArtifactDescriptor artifact = get();
+            return artifact != null && artifact.equals(((Interned) obj).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
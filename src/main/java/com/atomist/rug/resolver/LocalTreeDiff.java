@@ -0,0 +1,96 @@
+package com.atomist.rug.resolver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Difference between the direct dependencies of a local archive and the ones its cached rug tree
+ * was resolved for.
+ * </p>
+ * Rug trees are collected without conflict resolution, so the subtree of every direct dependency
+ * only depends on that dependency. This allows to resolve just the added or changed dependencies
+ * and splice their subtrees into the cached tree.
+ */
+class LocalTreeDiff {
+
+    private final ArtifactDescriptor artifact;
+    private final List<ArtifactDescriptor> added;
+    private final List<String> removed;
+    private final ArtifactDescriptor tree;
+
+    public LocalTreeDiff(ArtifactDescriptor artifact, ArtifactDescriptor tree,
+            List<String> previousSpecs) {
+        this.artifact = artifact;
+        this.tree = tree;
+        List<String> specs = specs(artifact);
+        this.added = artifact.dependencies().stream().filter(d -> !previousSpecs.contains(spec(d)))
+                .collect(Collectors.toList());
+        this.removed = previousSpecs.stream().filter(s -> !specs.contains(s))
+                .collect(Collectors.toList());
+    }
+
+    public static List<String> specs(ArtifactDescriptor artifact) {
+        return artifact.dependencies().stream().map(LocalTreeDiff::spec)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a copy of the local archive that only depends on the added or changed
+     * dependencies; <code>null</code> if there are none.
+     */
+    public ArtifactDescriptor added() {
+        if (added.isEmpty()) {
+            return null;
+        }
+        LocalArtifactDescriptor partial = new LocalArtifactDescriptor(artifact.group(),
+                artifact.artifact(), artifact.version(), artifact.extension(), artifact.scope(),
+                artifact.uri());
+        added.forEach(partial::addDependency);
+        return partial;
+    }
+
+    /**
+     * Returns the cached tree without the subtrees of removed dependencies and with the subtrees
+     * of the given tree of added dependencies, in the order of the archive's dependencies.
+     */
+    public ArtifactDescriptor splice(ArtifactDescriptor addedTree) {
+        List<String> removedKeys = removed.stream().map(LocalTreeDiff::key)
+                .collect(Collectors.toList());
+        Map<String, ArtifactDescriptor> children = new LinkedHashMap<>();
+        tree.dependencies().stream().filter(d -> !removedKeys.contains(key(d)))
+                .forEach(d -> children.put(key(d), d));
+        if (addedTree != null) {
+            addedTree.dependencies().forEach(d -> children.put(key(d), d));
+        }
+
+        List<ArtifactDescriptor> dependencies = new ArrayList<>();
+        artifact.dependencies().forEach(d -> {
+            ArtifactDescriptor child = children.remove(key(d));
+            if (child != null) {
+                dependencies.add(child);
+            }
+        });
+        dependencies.addAll(children.values());
+
+        return ImmutableArtifactDescriptor.of(tree.group(), tree.artifact(), tree.version(),
+                tree.extension(), tree.scope(), tree.uri(), dependencies);
+    }
+
+    private static String spec(ArtifactDescriptor artifact) {
+        return key(artifact) + ":" + artifact.classifier() + ":" + artifact.version();
+    }
+
+    // Resolved trees carry concrete versions and no classifiers; match on what stays the same
+    private static String key(ArtifactDescriptor artifact) {
+        return artifact.group() + ":" + artifact.artifact() + ":"
+                + artifact.extension().toString().toLowerCase();
+    }
+
+    private static String key(String spec) {
+        String[] parts = spec.split(":");
+        return parts[0] + ":" + parts[1] + ":" + parts[2];
+    }
+}
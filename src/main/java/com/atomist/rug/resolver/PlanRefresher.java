@@ -0,0 +1,63 @@
+package com.atomist.rug.resolver;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atomist.rug.resolver.concurrent.SingleFlight;
+
+/**
+ * Refreshes expired resolver plans in the background while callers keep getting served the
+ * expired plan. Only one refresh runs per plan file at a time; a failed refresh gets logged and
+ * leaves the expired plan in place so that the next caller triggers another attempt.
+ * </p>
+ * Plans older than the maximum staleness, e.g. because their refreshes keep failing, are no
+ * longer served; callers resolve them again and wait for the result.
+ */
+class PlanRefresher {
+
+    // Plans expire after 2 hours; serve them for up to a day while refreshes fail
+    static final long MAX_STALENESS = 1000 * 60 * 60 * 24;
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanRefresher.class);
+
+    private final Executor executor;
+    private final long maxStaleness;
+    private final SingleFlight<String, File> refreshes = new SingleFlight<>();
+
+    public PlanRefresher(Executor executor) {
+        this(executor, MAX_STALENESS);
+    }
+
+    public PlanRefresher(Executor executor, long maxStaleness) {
+        this.executor = executor;
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Returns whether the given expired plan is recent enough to be served while it gets
+     * refreshed.
+     */
+    public boolean isServable(File plan) {
+        return System.currentTimeMillis() - plan.lastModified() <= maxStaleness;
+    }
+
+    /**
+     * Runs the given refresh of the given plan on the executor unless one is already running.
+     * The refresh is expected to write the plan once it completes.
+     */
+    public void refresh(File plan, Supplier<CompletableFuture<?>> refresh) {
+        refreshes.submit(plan.getAbsolutePath(), () -> CompletableFuture
+                .supplyAsync(refresh, executor).thenCompose(f -> f.thenApply(v -> plan))
+                .whenComplete((p, t) -> {
+                    if (t != null) {
+                        logger.warn(String.format("Failed to refresh resolver plan %s", plan),
+                                t);
+                    }
+                }));
+    }
+}
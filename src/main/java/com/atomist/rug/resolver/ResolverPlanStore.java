@@ -0,0 +1,232 @@
+package com.atomist.rug.resolver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.introspector.BeanAccess;
+
+import com.atomist.rug.resolver.manifest.Manifest;
+
+/**
+ * Reads and writes the resolver plan and tree files used by the caching
+ * {@link DependencyResolver} and {@link AsyncDependencyResolver} implementations.
+ */
+class ResolverPlanStore {
+
+    // Name of the resolver plan
+    private static final String LOCAL_PLAN_TREE_FILE_NAME = "_local_resolver.tree";
+    private static final String LOCAL_PLAN_FILE_NAME = "_local_resolver.plan";
+    private static final String LOCAL_PLAN_SPECS_FILE_NAME = "_local_resolver.deps";
+    private static final String PLAN_TREE_FILE_NAME = "_resolver.tree";
+    private static final String PLAN_FILE_NAME = "_resolver.plan";
+    // Default timeout 2 hours
+    private static final long TIMEOUT = 1000 * 60 * 60 * 2;
+
+    private String repoHome;
+
+    public ResolverPlanStore(String repoHome) {
+        this.repoHome = repoHome;
+    }
+
+    public File createPlanFile(ArtifactDescriptor artifact, boolean dependencies) {
+        File repoRoot = new File(repoHome);
+        File artifactRoot = new File(repoRoot, artifact.group().replace(".", File.separator)
+                + File.separator + artifact.artifact() + File.separator + artifact.version());
+        if (!artifactRoot.exists()) {
+            artifactRoot.mkdirs();
+        }
+        if (dependencies) {
+            if (artifact instanceof LocalArtifactDescriptor) {
+                return new File(artifactRoot, LOCAL_PLAN_FILE_NAME);
+            }
+            else {
+                return new File(artifactRoot, PLAN_FILE_NAME);
+            }
+        }
+        else {
+            if (artifact instanceof LocalArtifactDescriptor) {
+                return new File(artifactRoot, LOCAL_PLAN_TREE_FILE_NAME);
+            }
+            else {
+                return new File(artifactRoot, PLAN_TREE_FILE_NAME);
+            }
+        }
+    }
+
+    /**
+     * Returns the file holding the direct dependencies the tree of a local archive was resolved
+     * for.
+     */
+    public File createSpecsFile(ArtifactDescriptor artifact) {
+        return new File(createPlanFile(artifact, false).getParentFile(),
+                LOCAL_PLAN_SPECS_FILE_NAME);
+    }
+
+    public Optional<List<ArtifactDescriptor>> readDependenciesFromPlan(File artifactRoot) {
+        List<ArtifactDescriptor> dependencies = null;
+        try (InputStreamReader isr = new InputStreamReader(new FileInputStream(artifactRoot))) {
+            BufferedReader br = new BufferedReader(isr);
+            dependencies = new ArrayList<>();
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("#");
+                dependencies.add(new DefaultArtifactDescriptor(parts[0], parts[1], parts[2],
+                        ArtifactDescriptorFactory.toExtension(parts[3]),
+                        ArtifactDescriptor.Scope.COMPILE, parts[4]));
+            }
+        }
+        catch (FileNotFoundException e) {
+            // At this time we know the file exists
+        }
+        catch (IOException e) {
+            // Fine, just move on with no plan
+        }
+        return validateDependenciesFromPlan(Optional.ofNullable(dependencies));
+    }
+
+    /**
+     * Reads the cached tree of a local archive and diffs the direct dependencies it was resolved
+     * for against the archive's current ones.
+     */
+    public Optional<LocalTreeDiff> readTreeDiffFromPlan(ArtifactDescriptor artifact) {
+        File artifactRoot = createPlanFile(artifact, false);
+        File specsRoot = createSpecsFile(artifact);
+        if (!artifactRoot.exists() || !specsRoot.exists()) {
+            return Optional.empty();
+        }
+        Optional<ArtifactDescriptor> tree = readTreeFromPlan(artifactRoot);
+        try {
+            List<String> specs = Files.readAllLines(specsRoot.toPath());
+            return tree.map(t -> new LocalTreeDiff(artifact, t, specs));
+        }
+        catch (IOException e) {
+            // Fine, just move on with no plan
+        }
+        return Optional.empty();
+    }
+
+    public Optional<ArtifactDescriptor> readTreeFromPlan(File artifactRoot) {
+        try (InputStream is = new FileInputStream(artifactRoot)) {
+            Yaml yaml = new Yaml();
+            yaml.setBeanAccess(BeanAccess.FIELD);
+            return Optional.of(ImmutableArtifactDescriptor
+                    .copyOf(yaml.loadAs(is, DefaultArtifactDescriptor.class)));
+        }
+        catch (FileNotFoundException e) {
+            // At this time we know the file exists
+        }
+        catch (IOException e) {
+            // Fine, just move on with no plan
+        }
+        return Optional.empty();
+    }
+
+    public void writeDependenciesToPlan(List<ArtifactDescriptor> dependencies, File artifactRoot) {
+        File tempFile = tempFile(artifactRoot);
+        try {
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                dependencies.forEach(d -> {
+                    try {
+                        writer.write(d.group() + "#" + d.artifact() + "#" + d.version() + "#"
+                                + d.extension().toString().toLowerCase() + "#"
+                                + d.uri().toString() + "\n");
+                    }
+                    catch (IOException e) {
+                    }
+                });
+                writer.flush();
+            }
+            move(tempFile, artifactRoot);
+        }
+        catch (IOException e) {
+            // Something went wrong, just delete the plan file
+            tempFile.delete();
+            artifactRoot.delete();
+        }
+    }
+
+    /**
+     * Writes the tree of the given archive; for local archives the direct dependencies the tree
+     * was resolved for are written next to it.
+     */
+    public void writeTreeToPlan(ArtifactDescriptor artifact, ArtifactDescriptor tree) {
+        writeTreeToPlan(tree, createPlanFile(artifact, false));
+        if (artifact instanceof LocalArtifactDescriptor) {
+            File specsRoot = createSpecsFile(artifact);
+            try {
+                Files.write(specsRoot.toPath(), LocalTreeDiff.specs(artifact));
+            }
+            catch (IOException e) {
+                // Something went wrong, just delete the plan file
+                specsRoot.delete();
+            }
+        }
+    }
+
+    public void writeTreeToPlan(ArtifactDescriptor artifact, File artifactRoot) {
+        File tempFile = tempFile(artifactRoot);
+        try {
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                Yaml yaml = new Yaml();
+                yaml.setBeanAccess(BeanAccess.FIELD);
+                // Written as mutable descriptors to keep the plan format
+                yaml.dump(ArtifactDescriptorFactory.toDefault(artifact), writer);
+                writer.flush();
+            }
+            move(tempFile, artifactRoot);
+        }
+        catch (IOException e) {
+            // Something went wrong, just delete the plan file
+            tempFile.delete();
+            artifactRoot.delete();
+        }
+    }
+
+    public boolean isOutdated(ArtifactDescriptor artifact, File file) {
+        if (artifact instanceof LocalArtifactDescriptor) {
+            File manifestYml = new File(new File(artifact.uri()),
+                    Manifest.ATOMIST_ROOT + File.separator + Manifest.FILE_NAME);
+            File packageJson = new File(new File(artifact.uri()),
+                    Manifest.ATOMIST_ROOT + File.separator + "package.json");
+            return (manifestYml.exists() && manifestYml.lastModified() > file.lastModified())
+                    || (packageJson.exists() && packageJson.lastModified() > file.lastModified());
+        }
+        return System.currentTimeMillis() - file.lastModified() > TIMEOUT;
+    }
+
+    // Plans get swapped atomically so that concurrent readers, e.g. while a stale plan gets
+    // refreshed, never see a partially written plan
+    private void move(File tempFile, File artifactRoot) throws IOException {
+        Files.move(tempFile.toPath(), artifactRoot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File tempFile(File artifactRoot) {
+        return new File(artifactRoot.getParentFile(),
+                artifactRoot.getName() + "." + Thread.currentThread().getId());
+    }
+
+    private Optional<List<ArtifactDescriptor>> validateDependenciesFromPlan(
+            Optional<List<ArtifactDescriptor>> dependencies) {
+        if (dependencies.isPresent()) {
+            Optional<ArtifactDescriptor> missingArtifact = dependencies.get().stream()
+                    .filter(d -> !new File(d.uri()).exists()).findAny();
+            if (missingArtifact.isPresent()) {
+                return Optional.empty();
+            }
+        }
+        return dependencies;
+    }
+}
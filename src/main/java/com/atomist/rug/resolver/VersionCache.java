@@ -0,0 +1,176 @@
+package com.atomist.rug.resolver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Caches the versions that <code>latest</code> and version ranges resolved to, in memory and in a
+ * <code>_resolver.versions</code> file per archive.
+ * </p>
+ * Failed lookups are only remembered in memory and for a much shorter time, so that asking for
+ * missing archives doesn't hit the remote repositories on every call. Timeouts and interrupts are
+ * never cached.
+ */
+class VersionCache {
+
+    // Default timeout 2 hours
+    public static final long TIMEOUT = 1000 * 60 * 60 * 2;
+    // Default timeout for failed lookups 1 minute
+    public static final long NEGATIVE_TIMEOUT = 1000 * 60;
+
+    private static final String VERSIONS_FILE_NAME = "_resolver.versions";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+    private final long negativeTimeout;
+    private final String repoHome;
+    private final long timeout;
+
+    public VersionCache(String repoHome, long timeout, long negativeTimeout) {
+        this.repoHome = repoHome;
+        this.timeout = timeout;
+        this.negativeTimeout = negativeTimeout;
+    }
+
+    public static boolean isRange(String version) {
+        return "latest".equals(version) || version.startsWith("(") || version.startsWith("[");
+    }
+
+    /**
+     * Returns the cached version for the given artifact's version range; throws a new exception
+     * caused by the cached failure of a previous lookup.
+     */
+    public Optional<String> get(ArtifactDescriptor artifact) throws DependencyResolverException {
+        load(artifact);
+        String key = key(artifact);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        else if (entry.isExpired()) {
+            entries.remove(key, entry);
+            return Optional.empty();
+        }
+        else if (entry.failure != null) {
+            // A new exception per caller, so that its stack trace shows who asked
+            throw new DependencyResolverException(entry.failure.getMessage(), entry.failure);
+        }
+        return Optional.of(entry.version);
+    }
+
+    public void put(ArtifactDescriptor artifact, String version) {
+        entries.put(key(artifact), new Entry(version, null, System.currentTimeMillis(), timeout));
+        write(artifact);
+    }
+
+    public void putFailure(ArtifactDescriptor artifact, DependencyResolverException failure) {
+        if (failure instanceof DependencyResolverTimeoutException
+                || failure.getCause() instanceof InterruptedException
+                || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        entries.put(key(artifact),
+                new Entry(null, failure, System.currentTimeMillis(), negativeTimeout));
+    }
+
+    private File createVersionsFile(ArtifactDescriptor artifact) {
+        File artifactRoot = new File(new File(repoHome), artifact.group().replace(".",
+                File.separator) + File.separator + artifact.artifact());
+        if (!artifactRoot.exists()) {
+            artifactRoot.mkdirs();
+        }
+        return new File(artifactRoot, VERSIONS_FILE_NAME);
+    }
+
+    private String key(ArtifactDescriptor artifact) {
+        return prefix(artifact) + artifact.version();
+    }
+
+    private void load(ArtifactDescriptor artifact) {
+        if (!loaded.add(prefix(artifact))) {
+            return;
+        }
+        File versionsFile = createVersionsFile(artifact);
+        if (!versionsFile.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(versionsFile)))) {
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("#");
+                if (parts.length == 3) {
+                    Entry entry = new Entry(parts[1], null, Long.parseLong(parts[2]), timeout);
+                    if (!entry.isExpired()) {
+                        entries.putIfAbsent(prefix(artifact) + parts[0], entry);
+                    }
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            // Fine, just move on without the cached versions
+        }
+    }
+
+    private String prefix(ArtifactDescriptor artifact) {
+        return artifact.group() + ":" + artifact.artifact() + "#";
+    }
+
+    private synchronized void write(ArtifactDescriptor artifact) {
+        File versionsFile = createVersionsFile(artifact);
+        File tempFile = new File(versionsFile.getParentFile(),
+                VERSIONS_FILE_NAME + "." + Thread.currentThread().getId());
+        String prefix = prefix(artifact);
+        try {
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    if (e.getKey().startsWith(prefix) && entry.failure == null
+                            && !entry.isExpired()) {
+                        writer.write(e.getKey().substring(prefix.length()) + "#" + entry.version
+                                + "#" + entry.resolved + "\n");
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), versionsFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            // Something went wrong, just delete the versions file
+            FileUtils.deleteQuietly(tempFile);
+            FileUtils.deleteQuietly(versionsFile);
+        }
+    }
+
+    private static class Entry {
+
+        private final DependencyResolverException failure;
+        private final long resolved;
+        private final long timeout;
+        private final String version;
+
+        public Entry(String version, DependencyResolverException failure, long resolved,
+                long timeout) {
+            this.version = version;
+            this.failure = failure;
+            this.resolved = resolved;
+            this.timeout = timeout;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - resolved > timeout;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Concurrency limit that adapts to the observed latency and errors of the operations it gates,
+ * using additive increase and multiplicative decrease (AIMD).
+ * </p>
+ * The limit grows by one per limit's worth of successful operations while they use at least half
+ * of it, and shrinks by the backoff ratio whenever an operation fails or takes longer than the
+ * tolerated multiple of the smoothed latency. It shrinks at most once per window though:
+ * operations that got their permit before the last decrease ran into the same overload, so their
+ * failures don't shrink it again. Callers over the limit are queued without blocking a thread.
+ */
+public class AdaptiveLimiter {
+
+    // Latency increases of a few milliseconds are noise rather than overload
+    private static final long JITTER = 10;
+    // Weight of a new sample in the smoothed latency
+    private static final double SMOOTHING = 0.05;
+
+    private final double backoff;
+    // Number of the last permit issued before the limit last shrank
+    private long decreased = 0;
+    private int inFlight = 0;
+    private long issued = 0;
+    private double latency = 0;
+    private double limit;
+    private final int maxLimit;
+    private final int minLimit;
+    private final double tolerance;
+    private final Queue<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0.75, 2.0);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoff,
+            double tolerance) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns a future that completes with a permit once the operation may start. Cancelling the
+     * future gives up the place in the queue.
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        Permit permit;
+        synchronized (this) {
+            if (inFlight >= getLimit()) {
+                waiters.add(waiter);
+                return waiter;
+            }
+            inFlight++;
+            permit = new Permit(++issued);
+        }
+        waiter.complete(permit);
+        return waiter;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getQueueDepth() {
+        return waiters.size();
+    }
+
+    private void release(Permit permit, Long millis, boolean dropped) {
+        synchronized (this) {
+            inFlight--;
+            if (dropped) {
+                decrease(permit);
+            }
+            else if (millis != null) {
+                latency = (latency == 0 ? millis : latency + SMOOTHING * (millis - latency));
+                if (millis > tolerance * latency + JITTER) {
+                    decrease(permit);
+                }
+                else if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+        }
+        dispatch();
+    }
+
+    private void decrease(Permit permit) {
+        if (permit.number > decreased) {
+            limit = Math.max(minLimit, limit * backoff);
+            decreased = issued;
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            CompletableFuture<Permit> waiter;
+            Permit permit;
+            synchronized (this) {
+                if (inFlight >= getLimit() || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.poll();
+                inFlight++;
+                permit = new Permit(++issued);
+            }
+            // Complete outside the lock as the waiter's dependents might run right away
+            if (!waiter.complete(permit)) {
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Permit to run one operation; exactly one of its methods has to be called once the
+     * operation completed.
+     */
+    public class Permit {
+
+        private final long number;
+        private volatile long started = System.currentTimeMillis();
+
+        private Permit(long number) {
+            this.number = number;
+        }
+
+        /**
+         * The operation actually started, e.g. once a thread picked it up; its latency is
+         * measured from here instead of from when the permit got granted.
+         */
+        public void onStart() {
+            started = System.currentTimeMillis();
+        }
+
+        /**
+         * The operation failed because the gated resource is overloaded or failing.
+         */
+        public void onDropped() {
+            release(this, null, true);
+        }
+
+        /**
+         * The operation didn't complete for reasons unrelated to the gated resource, e.g. it got
+         * cancelled; its outcome doesn't change the limit.
+         */
+        public void onIgnore() {
+            release(this, null, false);
+        }
+
+        public void onSuccess() {
+            release(this, System.currentTimeMillis() - started, false);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Subscription} that buffers offered items until the subscriber requested them and
+ * delivers all signals to it one at a time, whichever thread offers or requests.
+ * </p>
+ * The subscription signals completion only after all buffered items got delivered; errors are
+ * signalled right away and drop the buffered items. A subscriber throwing from
+ * {@link Subscriber#onNext(Object)} gets cancelled and receives the exception as error.
+ * </p>
+ * Demand only limits delivery: the producer offers items as fast as it produces them, and the
+ * ones not requested yet are held in memory.
+ */
+public class BufferedSubscription<T, R> implements Subscription {
+
+    private final List<Runnable> cancelCallbacks = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled = false;
+    private volatile boolean completed = false;
+    private final AtomicLong demand = new AtomicLong();
+    // Only accessed while draining
+    private boolean done = false;
+    private volatile Throwable error;
+    private final Queue<T> items = new ConcurrentLinkedQueue<>();
+    private volatile R result;
+    private final Subscriber<T, R> subscriber;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    public BufferedSubscription(Subscriber<T, R> subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            cancelCallbacks.forEach(Runnable::run);
+            drain();
+        }
+    }
+
+    public void complete(R result) {
+        this.result = result;
+        this.completed = true;
+        drain();
+    }
+
+    public void error(Throwable error) {
+        this.error = error;
+        drain();
+    }
+
+    public void offer(T item) {
+        items.add(item);
+        drain();
+    }
+
+    /**
+     * Runs the given callback once the subscriber cancelled; right away if it did already.
+     */
+    public void onCancel(Runnable callback) {
+        cancelCallbacks.add(callback);
+        if (cancelled && cancelCallbacks.remove(callback)) {
+            callback.run();
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            error(new IllegalArgumentException(
+                    String.format("Requested %s items; requests need to be positive", n)));
+            cancel();
+            return;
+        }
+        demand.accumulateAndGet(n, (d, r) -> (d + r < 0 ? Long.MAX_VALUE : d + r));
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            // Another thread is delivering and will pick up what changed
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            if (done) {
+                items.clear();
+            }
+            else {
+                if (cancelled) {
+                    done = true;
+                    items.clear();
+                }
+                else if (error != null) {
+                    done = true;
+                    items.clear();
+                    subscriber.onError(error);
+                }
+                else {
+                    while (demand.get() > 0 && !cancelled && error == null) {
+                        T item = items.poll();
+                        if (item == null) {
+                            break;
+                        }
+                        demand.decrementAndGet();
+                        try {
+                            subscriber.onNext(item);
+                        }
+                        catch (RuntimeException e) {
+                            done = true;
+                            items.clear();
+                            cancel();
+                            subscriber.onError(e);
+                            break;
+                        }
+                    }
+                    if (completed && items.isEmpty() && !cancelled && error == null) {
+                        done = true;
+                        subscriber.onComplete(result);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
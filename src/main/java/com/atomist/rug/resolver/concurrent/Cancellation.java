@@ -0,0 +1,97 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Cooperative cancellation handle shared by all tasks of one unit of work.
+ * </p>
+ * Cancelling cancels every future registered or submitted through this handle, so that queued
+ * tasks don't run anymore, and interrupts the threads currently running submitted tasks. Long
+ * running operations are expected to poll {@link #isCancelled()}.
+ */
+public class Cancellation {
+
+    private volatile boolean cancelled = false;
+    // Only futures still running; completed ones are dropped so they can be collected
+    private final Set<CompletableFuture<?>> futures = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> running = new HashSet<>();
+
+    public void cancel() {
+        synchronized (running) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            running.forEach(Thread::interrupt);
+        }
+        Futures.cancel(new ArrayList<>(futures));
+    }
+
+    /**
+     * Returns a handle that gets cancelled along with this one but can also be cancelled on its
+     * own, e.g. to abandon one of several competing tasks.
+     */
+    public Cancellation child() {
+        Cancellation child = new Cancellation();
+        CompletableFuture<Void> link = new CompletableFuture<>();
+        link.whenComplete((v, t) -> child.cancel());
+        register(link);
+        return child;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public <F extends CompletableFuture<?>> F register(F future) {
+        if (future.isDone()) {
+            return future;
+        }
+        futures.add(future);
+        future.whenComplete((v, t) -> futures.remove(future));
+        if (cancelled) {
+            future.cancel(false);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of registered futures that didn't complete yet.
+     */
+    int pending() {
+        return futures.size();
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        return register(CompletableFuture.supplyAsync(() -> run(supplier), executor));
+    }
+
+    private <T> T run(Supplier<T> supplier) {
+        Thread thread = Thread.currentThread();
+        synchronized (running) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            running.add(thread);
+        }
+        try {
+            return supplier.get();
+        }
+        finally {
+            synchronized (running) {
+                running.remove(thread);
+                // Don't leak our interrupt into the next task of a pooled thread
+                if (cancelled) {
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The available {@link ExecutorStrategy}s, all of them propagating the MDC to their tasks:
+ * <ul>
+ * <li><code>fixed</code>: fixed pool of daemon threads; the default</li>
+ * <li><code>work-stealing</code>: {@link ForkJoinPool} in async mode with the given
+ * parallelism; it doesn't add threads for tasks blocked on I/O</li>
+ * <li><code>virtual</code>: new virtual thread per task on JDKs that support them, the fixed pool
+ * otherwise</li>
+ * </ul>
+ * Any other name is taken as the class name of an {@link ExecutorStrategy} with a default
+ * constructor.
+ */
+public abstract class ExecutorStrategies {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorStrategies.class);
+
+    public static final ExecutorStrategy FIXED = (name,
+            threads) -> MdcThreadPoolExecutor.newFixedThreadPool(threads, name);
+
+    public static final ExecutorStrategy WORK_STEALING = ExecutorStrategies::newWorkStealingPool;
+
+    public static final ExecutorStrategy VIRTUAL = ExecutorStrategies::newVirtualThreadExecutor;
+
+    public static ExecutorStrategy forName(String name) {
+        switch (name) {
+        case "fixed":
+            return FIXED;
+        case "work-stealing":
+            return WORK_STEALING;
+        case "virtual":
+            return VIRTUAL;
+        default:
+            try {
+                return (ExecutorStrategy) Class.forName(name).getDeclaredConstructor()
+                        .newInstance();
+            }
+            catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Unable to create executor strategy %s configured as maven.executor; "
+                                + "expected fixed, work-stealing, virtual or the class name of "
+                                + "an ExecutorStrategy with a default constructor",
+                        name), e);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the running JDK can create virtual threads.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return newVirtualThreadFactory("probe") != null;
+    }
+
+    private static ExecutorService newWorkStealingPool(String name, int threads) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                    .newThread(pool);
+            thread.setName(name + "-" + thread.getPoolIndex());
+            return thread;
+        };
+        return new MdcExecutorService(new ForkJoinPool(threads, factory, null, true));
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String name, int threads) {
+        ThreadFactory factory = newVirtualThreadFactory(name);
+        if (factory != null) {
+            try {
+                return new MdcExecutorService((ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory));
+            }
+            catch (ReflectiveOperationException e) {
+                // Fall through to the fixed pool
+            }
+        }
+        logger.warn("Virtual threads not supported by this JDK; using fixed pool for {}", name);
+        return FIXED.newExecutor(name, threads);
+    }
+
+    private static ThreadFactory newVirtualThreadFactory(String name) {
+        // Looked up reflectively as we still compile against Java 8
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder,
+                    name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
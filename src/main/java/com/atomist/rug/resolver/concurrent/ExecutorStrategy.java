@@ -0,0 +1,16 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executor resolver work runs on. Implementations need to propagate the MDC of the
+ * submitting thread to the tasks; see {@link ExecutorStrategies} for the available strategies.
+ */
+public interface ExecutorStrategy {
+
+    /**
+     * Returns a new executor whose threads are named after the given name; <code>threads</code>
+     * is the number of threads for strategies that use a bounded pool.
+     */
+    ExecutorService newExecutor(String name, int threads);
+}
@@ -0,0 +1,72 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class Futures {
+
+    /**
+     * Returns a future that completes with the results of all given futures in their order, or
+     * with the first failure as soon as any of them fails. In the latter case the remaining
+     * futures get cancelled; so do all given futures if the returned one is cancelled.
+     */
+    public static <T> CompletableFuture<List<T>> allOfFailFast(
+            List<? extends CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        futures.forEach(f -> f.whenComplete((v, t) -> {
+            if (t != null && result.completeExceptionally(unwrap(t))) {
+                cancel(futures);
+            }
+        }));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenRun(() -> result.complete(futures.stream().map(CompletableFuture::join)
+                        .collect(Collectors.toList())));
+        result.whenComplete((v, t) -> {
+            if (result.isCancelled()) {
+                cancel(futures);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns a future that completes with the result of the first given future that completes
+     * successfully, or with the last failure if all of them fail. The remaining futures get
+     * cancelled once the returned one completed; after a success they are cancelled before the
+     * result is passed on.
+     */
+    public static <T> CompletableFuture<T> anyOfSuccessful(
+            List<? extends CompletableFuture<T>> futures) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (futures.isEmpty()) {
+            result.completeExceptionally(new IllegalArgumentException("No futures given"));
+            return result;
+        }
+        AtomicInteger pending = new AtomicInteger(futures.size());
+        futures.forEach(f -> f.whenComplete((v, t) -> {
+            if (t == null) {
+                cancel(futures);
+                result.complete(v);
+            }
+            else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(unwrap(t));
+            }
+        }));
+        result.whenComplete((v, t) -> cancel(futures));
+        return result;
+    }
+
+    public static void cancel(List<? extends CompletableFuture<?>> futures) {
+        futures.forEach(f -> f.cancel(false));
+    }
+
+    public static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
@@ -0,0 +1,75 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.MDC;
+
+/**
+ * {@link ExecutorService} that runs tasks on the given executor with the MDC of the thread that
+ * submitted them.
+ */
+public class MdcExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+
+    public MdcExecutorService(ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    public static Runnable wrap(Runnable runnable, Map<String, String> context) {
+        return () -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            if (context == null) {
+                MDC.clear();
+            }
+            else {
+                MDC.setContextMap(context);
+            }
+            try {
+                runnable.run();
+            }
+            finally {
+                if (previous == null) {
+                    MDC.clear();
+                }
+                else {
+                    MDC.setContextMap(previous);
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(wrap(command, MDC.getCopyOfContextMap()));
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+}
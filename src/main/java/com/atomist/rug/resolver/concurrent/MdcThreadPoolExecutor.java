@@ -20,6 +20,19 @@ public class MdcThreadPoolExecutor extends ThreadPoolExecutor {
                 new LinkedBlockingQueue<Runnable>(), factory);
     }
 
+    /**
+     * Returns a pool that starts threads on demand up to the given number and lets them go after a
+     * minute of idling.
+     */
+    public static ExecutorService newElasticThreadPool(int maxThreads, String name) {
+        BasicThreadFactory factory = new BasicThreadFactory.Builder().namingPattern(name + "-%d")
+                .daemon(true).build();
+        MdcThreadPoolExecutor executor = new MdcThreadPoolExecutor(maxThreads, maxThreads, 1L,
+                TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private MdcThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
             TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory factory) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, factory);
@@ -32,26 +45,7 @@ public class MdcThreadPoolExecutor extends ThreadPoolExecutor {
     }
 
     public Runnable wrap(Runnable runnable, Map<String, String> context) {
-        return () -> {
-            Map<String, String> previous = MDC.getCopyOfContextMap();
-            if (context == null) {
-                MDC.clear();
-            }
-            else {
-                MDC.setContextMap(context);
-            }
-            try {
-                runnable.run();
-            }
-            finally {
-                if (previous == null) {
-                    MDC.clear();
-                }
-                else {
-                    MDC.setContextMap(previous);
-                }
-            }
-        };
+        return MdcExecutorService.wrap(runnable, context);
     }
 
     private Map<String, String> getContextForTask() {
@@ -0,0 +1,120 @@
+package com.atomist.rug.resolver.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent asynchronous computations for the same key into one shared computation.
+ * </p>
+ * The first caller for a key starts the computation; callers arriving while it is in flight share
+ * its result or exception. Every caller gets its own future; completing or cancelling it early
+ * only abandons that caller's interest. The shared computation is cancelled once every caller
+ * abandoned it. Blocking callers wait on their own future, so interrupting one of them only
+ * abandons that caller's wait.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight> submitted = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> supplier) {
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight existing = submitted.putIfAbsent(key, flight);
+            if (existing == null) {
+                CompletableFuture<V> view = flight.join();
+                flight.start(supplier);
+                return view;
+            }
+            CompletableFuture<V> view = existing.join();
+            if (view != null) {
+                return view;
+            }
+            // Everybody else abandoned the existing computation; start over
+            submitted.remove(key, existing);
+        }
+    }
+
+    public int size() {
+        return submitted.size();
+    }
+
+    private class Flight {
+
+        private final K key;
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> work;
+        // Number of callers waiting for the result; -1 once all of them abandoned it
+        private int views = 0;
+
+        public Flight(K key) {
+            this.key = key;
+        }
+
+        public synchronized CompletableFuture<V> join() {
+            if (views < 0) {
+                return null;
+            }
+            views++;
+            CompletableFuture<V> view = new CompletableFuture<>();
+            shared.whenComplete((v, t) -> {
+                if (t != null) {
+                    view.completeExceptionally(t);
+                }
+                else {
+                    view.complete(v);
+                }
+            });
+            view.whenComplete((v, t) -> {
+                if (!shared.isDone()) {
+                    leave();
+                }
+            });
+            return view;
+        }
+
+        public void start(Supplier<CompletableFuture<V>> supplier) {
+            CompletableFuture<V> future;
+            try {
+                future = supplier.get();
+            }
+            catch (RuntimeException | Error e) {
+                submitted.remove(key, this);
+                shared.completeExceptionally(e);
+                return;
+            }
+            future.whenComplete((v, t) -> {
+                submitted.remove(key, this);
+                if (t != null) {
+                    shared.completeExceptionally(t);
+                }
+                else {
+                    shared.complete(v);
+                }
+            });
+            synchronized (this) {
+                work = future;
+                if (views >= 0) {
+                    return;
+                }
+            }
+            future.cancel(true);
+        }
+
+        private void leave() {
+            CompletableFuture<V> abandoned;
+            synchronized (this) {
+                if (views <= 0 || --views > 0) {
+                    return;
+                }
+                views = -1;
+                abandoned = work;
+            }
+            submitted.remove(key, this);
+            if (abandoned != null) {
+                abandoned.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.atomist.rug.resolver.concurrent;
+
+/**
+ * Receives the items of a stream as far as it requested them through its {@link Subscription},
+ * modelled after <code>java.util.concurrent.Flow.Subscriber</code> but completed with a result.
+ * </p>
+ * Signals are delivered one at a time but possibly on different threads; subscribers should
+ * hand off long running work instead of doing it in the callbacks.
+ */
+public interface Subscriber<T, R> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    /**
+     * Called after all items got delivered, with the result of the whole stream.
+     */
+    void onComplete(R result);
+}
@@ -0,0 +1,17 @@
+package com.atomist.rug.resolver.concurrent;
+
+/**
+ * Link between a {@link Subscriber} and the stream it subscribed to.
+ */
+public interface Subscription {
+
+    /**
+     * Allows <code>n</code> more items to be delivered; items not requested yet are buffered.
+     */
+    void request(long n);
+
+    /**
+     * Stops delivering items and cancels the work producing them.
+     */
+    void cancel();
+}
@@ -0,0 +1,141 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+
+/**
+ * Bounded in-memory cache of parsed artifact descriptors shared by all sessions of a
+ * {@link MavenBasedDependencyResolver}.
+ * </p>
+ * Entries are weighted by the number of dependencies, managed dependencies and repositories they
+ * carry; the least recently used entries are evicted once the total weight exceeds the configured
+ * maximum. Descriptors of release versions are kept until evicted, snapshot descriptors expire
+ * after the given timeout.
+ */
+public class ArtifactDescriptorCache {
+
+    private final long maxWeight;
+    private final long snapshotTimeout;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight = 0;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ArtifactDescriptorCache(long maxWeight, long snapshotTimeout) {
+        this.maxWeight = maxWeight;
+        this.snapshotTimeout = snapshotTimeout;
+    }
+
+    public ArtifactDescriptorResult get(ArtifactDescriptorRequest request) {
+        String key = key(request);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.result;
+        }
+    }
+
+    public void put(ArtifactDescriptorRequest request, ArtifactDescriptorResult result) {
+        // Don't cache failed or partial reads as they might succeed next time
+        if (!result.getExceptions().isEmpty()) {
+            return;
+        }
+        String key = key(request);
+        Entry entry = new Entry(result, request.getArtifact().isSnapshot());
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            weight += entry.weight;
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                weight -= iterator.next().weight;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    private String key(ArtifactDescriptorRequest request) {
+        Artifact artifact = request.getArtifact();
+        return ArtifactIdUtils.toId(artifact) + "#" + request.getRequestContext() + "#"
+                + request.getRepositories().stream().map(r -> r.getId() + "=" + r.getUrl())
+                        .collect(Collectors.joining(","));
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+    }
+
+    private class Entry {
+
+        private final long created = System.currentTimeMillis();
+        private final ArtifactDescriptorResult result;
+        private final boolean snapshot;
+        private final long weight;
+
+        public Entry(ArtifactDescriptorResult result, boolean snapshot) {
+            this.result = result;
+            this.snapshot = snapshot;
+            this.weight = 1 + result.getDependencies().size()
+                    + result.getManagedDependencies().size() + result.getRepositories().size();
+        }
+
+        public boolean isExpired() {
+            return snapshot && System.currentTimeMillis() - created > snapshotTimeout;
+        }
+    }
+}
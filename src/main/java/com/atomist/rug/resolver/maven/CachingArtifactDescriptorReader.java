@@ -0,0 +1,85 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.List;
+
+import org.apache.maven.repository.internal.DefaultArtifactDescriptorReader;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+
+/**
+ * {@link DefaultArtifactDescriptorReader} that serves descriptors from the
+ * {@link ArtifactDescriptorCache} registered on the session under {@link #CACHE_KEY}. Sessions
+ * without a cache read every descriptor as usual; so do sessions that always check for updates
+ * when reading snapshot descriptors.
+ * </p>
+ * Descriptors that need to be read try the repository routed to by the
+ * {@link RepositoryRoutes} registered under {@link #ROUTES_KEY} first, so that collecting a
+ * graph doesn't probe the other repositories for every POM.
+ * </p>
+ * The {@link Listener} stored in the session data under {@link #LISTENER_KEY} is told about every
+ * descriptor read successfully, e.g. to start downloading the artifacts of a graph while it is
+ * still being collected.
+ */
+public class CachingArtifactDescriptorReader extends DefaultArtifactDescriptorReader {
+
+    public static final String CACHE_KEY = ArtifactDescriptorCache.class.getName();
+    public static final String ROUTES_KEY = RepositoryRoutes.class.getName();
+    public static final String LISTENER_KEY = Listener.class.getName();
+
+    @Override
+    public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session,
+            ArtifactDescriptorRequest request) throws ArtifactDescriptorException {
+        ArtifactDescriptorResult result = read(session, request);
+        Object listener = session.getData().get(LISTENER_KEY);
+        // Relocated artifacts are collected under their new coordinates
+        if (listener instanceof Listener && result.getRelocations().isEmpty()) {
+            ((Listener) listener).read(request, result);
+        }
+        return result;
+    }
+
+    private ArtifactDescriptorResult read(RepositorySystemSession session,
+            ArtifactDescriptorRequest request) throws ArtifactDescriptorException {
+        Object cache = session.getConfigProperties().get(CACHE_KEY);
+        if (!(cache instanceof ArtifactDescriptorCache) || (request.getArtifact().isSnapshot()
+                && RepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(session.getUpdatePolicy()))) {
+            return super.readArtifactDescriptor(session, routed(session, request));
+        }
+
+        // Cached by the requested repositories so that learning a route doesn't invalidate them
+        ArtifactDescriptorCache descriptors = (ArtifactDescriptorCache) cache;
+        ArtifactDescriptorResult result = descriptors.get(request);
+        if (result == null) {
+            result = super.readArtifactDescriptor(session, routed(session, request));
+            descriptors.put(request, result);
+        }
+        return result;
+    }
+
+    private ArtifactDescriptorRequest routed(RepositorySystemSession session,
+            ArtifactDescriptorRequest request) {
+        Object routes = session.getConfigProperties().get(ROUTES_KEY);
+        if (!(routes instanceof RepositoryRoutes)) {
+            return request;
+        }
+        List<RemoteRepository> repositories = ((RepositoryRoutes) routes)
+                .order(request.getArtifact().getGroupId(), request.getRepositories());
+        if (repositories == request.getRepositories()) {
+            return request;
+        }
+        return new ArtifactDescriptorRequest(request.getArtifact(), repositories,
+                request.getRequestContext()).setTrace(request.getTrace());
+    }
+
+    /**
+     * Told about every descriptor read for a session; called on the collecting threads.
+     */
+    public interface Listener {
+
+        void read(ArtifactDescriptorRequest request, ArtifactDescriptorResult result);
+    }
+}
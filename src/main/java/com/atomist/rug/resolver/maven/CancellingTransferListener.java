@@ -0,0 +1,75 @@
+package com.atomist.rug.resolver.maven;
+
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+
+import com.atomist.rug.resolver.concurrent.Cancellation;
+
+/**
+ * Aborts the transfers of a session once the given {@link Cancellation} got cancelled; all events
+ * are passed on to the wrapped listener.
+ */
+class CancellingTransferListener extends AbstractTransferListener {
+
+    private final Cancellation cancellation;
+    private final TransferListener delegate;
+
+    public CancellingTransferListener(TransferListener delegate, Cancellation cancellation) {
+        this.delegate = delegate;
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public void transferCorrupted(TransferEvent event) throws TransferCancelledException {
+        checkCancelled();
+        if (delegate != null) {
+            delegate.transferCorrupted(event);
+        }
+    }
+
+    @Override
+    public void transferFailed(TransferEvent event) {
+        if (delegate != null) {
+            delegate.transferFailed(event);
+        }
+    }
+
+    @Override
+    public void transferInitiated(TransferEvent event) throws TransferCancelledException {
+        checkCancelled();
+        if (delegate != null) {
+            delegate.transferInitiated(event);
+        }
+    }
+
+    @Override
+    public void transferProgressed(TransferEvent event) throws TransferCancelledException {
+        checkCancelled();
+        if (delegate != null) {
+            delegate.transferProgressed(event);
+        }
+    }
+
+    @Override
+    public void transferStarted(TransferEvent event) throws TransferCancelledException {
+        checkCancelled();
+        if (delegate != null) {
+            delegate.transferStarted(event);
+        }
+    }
+
+    @Override
+    public void transferSucceeded(TransferEvent event) {
+        if (delegate != null) {
+            delegate.transferSucceeded(event);
+        }
+    }
+
+    private void checkCancelled() throws TransferCancelledException {
+        if (cancellation.isCancelled()) {
+            throw new TransferCancelledException();
+        }
+    }
+}
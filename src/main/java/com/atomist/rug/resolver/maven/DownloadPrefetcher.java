@@ -0,0 +1,91 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+
+import com.atomist.rug.resolver.concurrent.Futures;
+
+/**
+ * Starts downloading the artifacts of a graph while it is still being collected, as soon as the
+ * {@link CachingArtifactDescriptorReader} read their descriptors, so that downloads overlap the
+ * collection of the remaining POMs.
+ * </p>
+ * Only one version of an artifact survives conflict resolution, so artifacts that are depended on
+ * by a version range aren't prefetched, as every version of the range gets read. Neither are
+ * artifacts read in more than one version; downloads already started for them get cancelled.
+ * The walk of the collected graph {@link #take takes} the downloads of its nodes and starts the
+ * missing ones itself.
+ */
+class DownloadPrefetcher implements CachingArtifactDescriptorReader.Listener {
+
+    private final Predicate<Artifact> accepted;
+    private final Function<ArtifactRequest, CompletableFuture<ArtifactResult>> download;
+    private final Map<String, CompletableFuture<ArtifactResult>> downloads = new HashMap<>();
+    private final Set<String> ambiguous = new HashSet<>();
+    // Id of the version read first by versionless id
+    private final Map<String, String> versions = new HashMap<>();
+
+    public DownloadPrefetcher(Predicate<Artifact> accepted,
+            Function<ArtifactRequest, CompletableFuture<ArtifactResult>> download) {
+        this.accepted = accepted;
+        this.download = download;
+    }
+
+    @Override
+    public synchronized void read(ArtifactDescriptorRequest request,
+            ArtifactDescriptorResult result) {
+        // Dependencies are read after the descriptor that declares them
+        result.getDependencies().stream()
+                .filter(d -> MavenBasedDependencyResolver.isRange(d.getArtifact().getVersion()))
+                .forEach(d -> ambiguous.add(ArtifactIdUtils.toVersionlessId(d.getArtifact())));
+
+        Artifact artifact = request.getArtifact();
+        String versionless = ArtifactIdUtils.toVersionlessId(artifact);
+        String id = ArtifactIdUtils.toId(artifact);
+        String previous = versions.putIfAbsent(versionless, id);
+        if (previous == null) {
+            if (!ambiguous.contains(versionless) && accepted.test(artifact)) {
+                downloads.put(id, download.apply(new ArtifactRequest(artifact,
+                        request.getRepositories(), request.getRequestContext())
+                                .setTrace(request.getTrace())));
+            }
+        }
+        else if (!previous.equals(id)) {
+            ambiguous.add(versionless);
+            CompletableFuture<ArtifactResult> prefetched = downloads.remove(previous);
+            if (prefetched != null) {
+                prefetched.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the download started for the artifact of the given node, or <code>null</code> if
+     * there is none.
+     */
+    public synchronized CompletableFuture<ArtifactResult> take(DependencyNode node) {
+        return downloads.remove(ArtifactIdUtils.toId(node.getArtifact()));
+    }
+
+    /**
+     * Cancels the downloads that weren't taken.
+     */
+    public synchronized void cancel() {
+        Futures.cancel(new ArrayList<>(downloads.values()));
+        downloads.clear();
+    }
+}
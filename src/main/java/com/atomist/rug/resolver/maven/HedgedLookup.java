@@ -0,0 +1,149 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.impl.RepositoryConnectorProvider;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.RepositoryConnector;
+import org.eclipse.aether.transfer.NoRepositoryConnectorException;
+
+import com.atomist.rug.resolver.concurrent.Cancellation;
+import com.atomist.rug.resolver.concurrent.Futures;
+
+/**
+ * Finds the remote repository to download an artifact from by checking all given repositories
+ * concurrently for its existence; the first repository that has it wins and the checks against
+ * the others are cancelled.
+ * </p>
+ * Only existence checks are hedged. The download itself goes through the resolver once, as
+ * concurrent resolutions of the same artifact are serialized by the local repository's locks.
+ * </p>
+ * Checks of one session share a connector, and its connections, per repository; the connectors
+ * are closed once the {@link Cancellation} of the session's first lookup is cancelled, i.e. its
+ * resolution completed.
+ */
+class HedgedLookup {
+
+    private static final String CONNECTORS_KEY = HedgedLookup.class.getName() + ".connectors";
+
+    private final RepositoryConnectorProvider connectors;
+    private final ExecutorService executorService;
+    private final RepositoryStats stats;
+
+    public HedgedLookup(RepositoryConnectorProvider connectors, RepositoryStats stats,
+            ExecutorService executorService) {
+        this.connectors = connectors;
+        this.stats = stats;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Returns the repository that first confirmed to have the given artifact; empty if none of
+     * them has it or all checks failed.
+     */
+    public CompletableFuture<Optional<RemoteRepository>> find(RepositorySystemSession session,
+            Artifact artifact, List<RemoteRepository> repositories, Cancellation cancellation) {
+        Connectors open = connectors(session, cancellation);
+        List<CompletableFuture<RemoteRepository>> checks = repositories.stream()
+                .map(r -> check(session, artifact, r, open, cancellation.child()))
+                .collect(Collectors.toList());
+        return Futures.anyOfSuccessful(checks).handle((r, t) -> Optional.ofNullable(r));
+    }
+
+    private Connectors connectors(RepositorySystemSession session, Cancellation cancellation) {
+        Object connectors = session.getData().get(CONNECTORS_KEY);
+        if (connectors == null) {
+            Connectors created = new Connectors();
+            if (session.getData().set(CONNECTORS_KEY, null, created)) {
+                cancellation.register(new CompletableFuture<Void>())
+                        .whenComplete((v, t) -> created.close());
+                return created;
+            }
+            connectors = session.getData().get(CONNECTORS_KEY);
+        }
+        return (Connectors) connectors;
+    }
+
+    private CompletableFuture<RemoteRepository> check(RepositorySystemSession session,
+            Artifact artifact, RemoteRepository repository, Connectors open,
+            Cancellation cancellation) {
+        CompletableFuture<RemoteRepository> check = cancellation.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            ArtifactDownload download = new ArtifactDownload(artifact, null, null,
+                    RepositoryPolicy.CHECKSUM_POLICY_IGNORE);
+            download.setExistenceCheck(true);
+            download.setListener(new CancellingTransferListener(null, cancellation));
+            try {
+                open.get(session, repository).get(Collections.singletonList(download), null);
+            }
+            catch (NoRepositoryConnectorException e) {
+                throw new CompletionException(e);
+            }
+            catch (IllegalStateException e) {
+                // The connector got closed because the resolution completed
+                if (!cancellation.isCancelled()) {
+                    throw e;
+                }
+            }
+            if (cancellation.isCancelled()) {
+                // Another repository answered first or the resolution got abandoned; the time
+                // taken up to now isn't this repository's latency
+                stats.recordCancelled(repository.getId());
+            }
+            else {
+                stats.record(repository.getId(), System.currentTimeMillis() - start,
+                        download.getException() == null);
+            }
+            if (download.getException() != null) {
+                throw new CompletionException(download.getException());
+            }
+            return repository;
+        }, executorService);
+        // Losing checks get their transfers aborted
+        check.whenComplete((r, t) -> cancellation.cancel());
+        return check;
+    }
+
+    private class Connectors {
+
+        private boolean closed = false;
+        private final Map<RemoteRepository, RepositoryConnector> open = new HashMap<>();
+
+        public synchronized RepositoryConnector get(RepositorySystemSession session,
+                RemoteRepository repository) throws NoRepositoryConnectorException {
+            if (closed) {
+                throw new CancellationException();
+            }
+            RepositoryConnector connector = open.get(repository);
+            if (connector == null) {
+                connector = connectors.newRepositoryConnector(session, repository);
+                open.put(repository, connector);
+            }
+            return connector;
+        }
+
+        public void close() {
+            List<RepositoryConnector> connectors;
+            synchronized (this) {
+                closed = true;
+                connectors = new ArrayList<>(open.values());
+                open.clear();
+            }
+            connectors.forEach(RepositoryConnector::close);
+        }
+    }
+}
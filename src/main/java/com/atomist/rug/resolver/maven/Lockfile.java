@@ -0,0 +1,197 @@
+package com.atomist.rug.resolver.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+import org.yaml.snakeyaml.DumperOptions.FlowStyle;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.introspector.BeanAccess;
+import org.yaml.snakeyaml.nodes.Tag;
+
+import com.atomist.rug.resolver.ArtifactDescriptor;
+import com.atomist.rug.resolver.DependencyResolverException;
+import com.atomist.rug.resolver.manifest.Manifest;
+
+/**
+ * Fully resolved rug tree of a local archive with exact versions, source repositories and
+ * checksums. It is stored as <code>.atomist/manifest.lock</code> next to the archive's manifest
+ * and only applies as long as the archive's direct dependencies are the ones it was written for.
+ */
+public class Lockfile {
+
+    public static final String FILE_NAME = "manifest.lock";
+
+    private List<String> dependencies = new ArrayList<>();
+    private Entry root;
+
+    public Lockfile() {
+    }
+
+    public static Lockfile create(ArtifactDescriptor artifact, DependencyNode root,
+            Map<String, ArtifactResult> results) {
+        Lockfile lockfile = new Lockfile();
+        lockfile.dependencies = specs(artifact);
+        lockfile.root = new Entry(root, results);
+        return lockfile;
+    }
+
+    public static Optional<Lockfile> read(ArtifactDescriptor artifact) {
+        File lockfile = file(artifact);
+        if (!lockfile.exists()) {
+            return Optional.empty();
+        }
+        try (InputStream is = new FileInputStream(lockfile)) {
+            Yaml yaml = new Yaml();
+            yaml.setBeanAccess(BeanAccess.FIELD);
+            return Optional.ofNullable(yaml.loadAs(is, Lockfile.class));
+        }
+        catch (IOException | YAMLException e) {
+            // Fine, just move on without lockfile; a broken one gets replaced once locked again
+        }
+        return Optional.empty();
+    }
+
+    public static String sha1(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return String.format("%040x", new BigInteger(1, digest.digest()));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean matches(ArtifactDescriptor artifact) {
+        return root != null && root.group.equals(artifact.group())
+                && root.artifact.equals(artifact.artifact())
+                && root.version.equals(artifact.version())
+                && dependencies.equals(specs(artifact));
+    }
+
+    public Entry root() {
+        return root;
+    }
+
+    /**
+     * Writes this lockfile through a temporary file so that concurrent readers never see a
+     * partially written one.
+     */
+    public void write(ArtifactDescriptor artifact) {
+        File lockfile = file(artifact);
+        File tempFile = new File(lockfile.getParentFile(),
+                lockfile.getName() + "." + Thread.currentThread().getId());
+        try {
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                Yaml yaml = new Yaml();
+                yaml.setBeanAccess(BeanAccess.FIELD);
+                writer.write(yaml.dumpAs(this, Tag.MAP, FlowStyle.BLOCK));
+            }
+            Files.move(tempFile.toPath(), lockfile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            tempFile.delete();
+            throw new DependencyResolverException("Failed to write lockfile", e);
+        }
+    }
+
+    private static File file(ArtifactDescriptor artifact) {
+        return new File(new File(artifact.uri()),
+                Manifest.ATOMIST_ROOT + File.separator + FILE_NAME);
+    }
+
+    private static List<String> specs(ArtifactDescriptor artifact) {
+        return artifact.dependencies().stream()
+                .map(d -> String.format("%s:%s:%s:%s:%s", d.group(), d.artifact(),
+                        d.extension().toString().toLowerCase(),
+                        (d.classifier() != null ? d.classifier() : ""), d.version()))
+                .collect(Collectors.toList());
+    }
+
+    public static class Entry {
+
+        private String artifact;
+        private String classifier;
+        private List<Entry> dependencies = new ArrayList<>();
+        private String extension;
+        private String group;
+        private String repository;
+        private String scope;
+        private String sha1;
+        private String version;
+
+        public Entry() {
+        }
+
+        private Entry(DependencyNode node, Map<String, ArtifactResult> results) {
+            Artifact a = node.getArtifact();
+            this.group = a.getGroupId();
+            this.artifact = a.getArtifactId();
+            this.classifier = a.getClassifier();
+            this.extension = a.getExtension();
+            this.scope = node.getDependency().getScope();
+
+            // Excluded dependencies don't get downloaded
+            ArtifactResult result = results.get(ArtifactIdUtils.toId(a));
+            if (result != null) {
+                this.version = result.getArtifact().getVersion();
+                this.repository = (result.getRepository() != null
+                        ? result.getRepository().getId() : null);
+                try {
+                    this.sha1 = Lockfile.sha1(result.getArtifact().getFile());
+                }
+                catch (IOException e) {
+                    throw new DependencyResolverException("Failed to calculate checksum", e);
+                }
+            }
+            else {
+                this.version = a.getVersion();
+            }
+            node.getChildren().forEach(c -> dependencies.add(new Entry(c, results)));
+        }
+
+        public List<Entry> dependencies() {
+            return dependencies;
+        }
+
+        public String repository() {
+            return repository;
+        }
+
+        public String scope() {
+            return scope;
+        }
+
+        public String sha1() {
+            return sha1;
+        }
+
+        public Artifact toArtifact() {
+            return new DefaultArtifact(group, artifact, classifier, extension, version);
+        }
+    }
+}
@@ -1,20 +1,37 @@
 package com.atomist.rug.resolver.maven;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositoryCache;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.DefaultSessionData;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
@@ -23,10 +40,14 @@ import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.collection.CollectResult;
 import org.eclipse.aether.collection.DependencyCollectionException;
 import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.graph.DefaultDependencyNode;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.graph.DependencyVisitor;
 import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.RepositoryConnectorProvider;
+import org.eclipse.aether.repository.Authentication;
+import org.eclipse.aether.repository.LocalArtifactRequest;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.NoLocalRepositoryManagerException;
 import org.eclipse.aether.repository.ProxySelector;
@@ -38,7 +59,9 @@ import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.resolution.VersionRangeRequest;
 import org.eclipse.aether.resolution.VersionRangeResolutionException;
 import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
 import org.eclipse.aether.transfer.TransferListener;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
 import org.eclipse.aether.util.graph.selector.AndDependencySelector;
 import org.eclipse.aether.util.graph.selector.ExclusionDependencySelector;
 import org.eclipse.aether.util.graph.selector.OptionalDependencySelector;
@@ -54,12 +77,23 @@ import org.springframework.stereotype.Component;
 import com.atomist.rug.resolver.ArtifactDescriptor;
 import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
 import com.atomist.rug.resolver.ArtifactDescriptorFactory;
-import com.atomist.rug.resolver.DefaultArtifactDescriptor;
+import com.atomist.rug.resolver.AsyncDependencyResolver;
+import com.atomist.rug.resolver.CompactDependencyGraph;
 import com.atomist.rug.resolver.DependencyResolver;
 import com.atomist.rug.resolver.DependencyResolverException;
+import com.atomist.rug.resolver.DependencyResolverTimeoutException;
 import com.atomist.rug.resolver.DependencyVerificationFailedException;
 import com.atomist.rug.resolver.DependencyVerificationListener;
 import com.atomist.rug.resolver.DependencyVerifier;
+import com.atomist.rug.resolver.ImmutableArtifactDescriptor;
+import com.atomist.rug.resolver.LocalArtifactDescriptor;
+import com.atomist.rug.resolver.concurrent.AdaptiveLimiter;
+import com.atomist.rug.resolver.concurrent.BufferedSubscription;
+import com.atomist.rug.resolver.concurrent.Cancellation;
+import com.atomist.rug.resolver.concurrent.Futures;
+import com.atomist.rug.resolver.concurrent.MdcThreadPoolExecutor;
+import com.atomist.rug.resolver.concurrent.SingleFlight;
+import com.atomist.rug.resolver.concurrent.Subscriber;
 
 import io.takari.aether.localrepo.TakariLocalRepositoryManagerFactory;
 
@@ -69,23 +103,61 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
     private static final Logger logger = LoggerFactory
             .getLogger(MavenBasedDependencyResolver.class);
 
+    // Shared by all resolvers; its only daemon thread just completes timed out futures
+    private static final ScheduledExecutorService deadlines = newDeadlineScheduler();
+
     private List<DependencyVisitor> additionalVisitors = new ArrayList<>();
+    private final SingleFlight<Object, List<ArtifactDescriptor>> dependenciesInFlight =
+            new SingleFlight<>();
+    private final AsyncDependencyResolver async;
+    private final ArtifactDescriptorCache descriptorCache;
     private List<String> exclusions = new ArrayList<>();
+    private final AdaptiveLimiter downloads;
+    private final ExecutorService downloadService;
     private final ExecutorService executorService;
+    private HedgedLookup hedgedLookup;
+    private final MissingArtifactCache missingArtifacts;
     private final MavenProperties properties;
     private ProxySelector proxySelector;
     private final RepositorySystem repoSystem;
+    private final RepositoryStats repositoryStats = new RepositoryStats();
+    private final RepositoryRoutes routes;
+    private final SingleFlight<Object, ArtifactDescriptor> rugsInFlight = new SingleFlight<>();
+    private final Map<List<Object>, SessionTemplate> sessions = new ConcurrentHashMap<>();
     private TransferListener transferListener;
-    private List<DependencyVerificationListener> verificationListeners = new ArrayList<>();
+    private List<DependencyVerificationListener> verificationListeners =
+            new CopyOnWriteArrayList<>();
 
+    public MavenBasedDependencyResolver(RepositorySystem repoSystem, MavenProperties properties,
+            ExecutorService executorService) {
+        this(repoSystem, properties, executorService, MdcThreadPoolExecutor
+                .newElasticThreadPool(properties.getMaxDownloadConcurrency(),
+                        "maven-download-pool"));
+    }
+
+    /**
+     * Remote transfers run on the given <code>downloadService</code>, everything else on the
+     * <code>executorService</code>; the download pool needs as many threads as the maximum
+     * download concurrency for the adaptive limit to grow up to it.
+     */
     @Autowired
     public MavenBasedDependencyResolver(RepositorySystem repoSystem, MavenProperties properties,
-            @Qualifier("maven-resolver-pool") ExecutorService executorService) {
+            @Qualifier("maven-resolver-pool") ExecutorService executorService,
+            @Qualifier("maven-download-pool") ExecutorService downloadService) {
         this.repoSystem = repoSystem;
         this.properties = properties;
         this.exclusions = properties.getExclusions();
         this.executorService = executorService;
+        this.downloadService = downloadService;
         this.transferListener = new LogTransferListener();
+        this.routes = new RepositoryRoutes(properties.getRepoLocation());
+        this.downloads = new AdaptiveLimiter(properties.getDownloadConcurrency(), 1,
+                properties.getMaxDownloadConcurrency());
+        this.missingArtifacts = new MissingArtifactCache(properties.getRepoLocation(),
+                properties.getMissingArtifactTimeout());
+        this.descriptorCache = new ArtifactDescriptorCache(properties.getDescriptorCacheSize(),
+                properties.getSnapshotDescriptorTimeout());
+        this.async = new AsyncResolver(properties.getResolveTimeout());
     }
 
     public void addDependencyVisitor(DependencyVisitor visitor) {
@@ -100,99 +172,645 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
     @Override
     public List<ArtifactDescriptor> resolveDependencies(ArtifactDescriptor artifact,
             DependencyVerifier... verifiers) throws DependencyResolverException {
+        return await(async.resolveDependencies(artifact, verifiers));
+    }
+
+    @Override
+    public ArtifactDescriptor resolveRugs(ArtifactDescriptor artifact)
+            throws DependencyResolverException {
+        return await(async.resolveRugs(artifact));
+    }
+
+    @Override
+    public List<ArtifactDescriptor> resolveRugs(Collection<ArtifactDescriptor> artifacts)
+            throws DependencyResolverException {
+        return await(async.resolveRugs(artifacts));
+    }
+
+    @Override
+    public String resolveVersion(ArtifactDescriptor artifact) throws DependencyResolverException {
+        return await(async.resolveVersion(artifact));
+    }
 
-        if (logger.isInfoEnabled()) {
-            logger.info(String.format("Resolving dependencies for %s:%s:%s:%s", artifact.group(),
-                    artifact.artifact(), artifact.extension().toString().toLowerCase(),
-                    artifact.version()));
+    @Override
+    public Map<ArtifactDescriptor, String> resolveVersions(
+            Collection<ArtifactDescriptor> artifacts) throws DependencyResolverException {
+        return await(async.resolveVersions(artifacts));
+    }
+
+    /**
+     * Returns a non-blocking view of this resolver. Collection and downloads run on the
+     * <code>maven-resolver-pool</code> and the returned futures complete on its threads.
+     * </p>
+     * Returned futures fail with a {@link DependencyResolverTimeoutException} if they don't
+     * complete within the configured <code>maven.resolve-timeout</code>. A resolution, including
+     * its tasks and transfers, is cancelled once no caller waits for its result anymore.
+     */
+    public AsyncDependencyResolver async() {
+        return async;
+    }
+
+    /**
+     * Returns a non-blocking view of this resolver whose calls time out after the given number
+     * of milliseconds; 0 disables the deadline.
+     */
+    public AsyncDependencyResolver async(long timeout) {
+        return new AsyncResolver(timeout);
+    }
+
+    /**
+     * Resolves the rugs of the given local archive and pins the resulting tree, with exact
+     * versions, source repositories and checksums, in <code>.atomist/manifest.lock</code>. With
+     * <code>maven.lockfile</code> enabled, later resolutions of the archive only download and
+     * check the pinned files as long as its dependencies don't change.
+     */
+    public ArtifactDescriptor lockRugs(ArtifactDescriptor artifact)
+            throws DependencyResolverException {
+        if (!(artifact instanceof LocalArtifactDescriptor)) {
+            throw new DependencyResolverException(
+                    String.format("Only local archives can be locked, not %s",
+                            coordinates(artifact)));
         }
+        return await(within(cancellable(c -> doResolveRugs(artifact, c, true)),
+                properties.getResolveTimeout(), coordinates(artifact)));
+    }
 
-        RepositorySystemSession session = newSession(repoSystem, createDependencyRoot(artifact),
-                true);
-        List<RemoteRepository> remotes = properties.repositories();
+    /**
+     * Resolves the rugs of the given archives into one {@link CompactDependencyGraph}, for
+     * callers that hold on to very large resolutions.
+     */
+    public CompactDependencyGraph resolveRugsGraph(Collection<ArtifactDescriptor> artifacts)
+            throws DependencyResolverException {
+        return CompactDependencyGraph.of(resolveRugs(artifacts));
+    }
 
-        List<DependencyNode> dependencies = collectDependencies(artifact, session, remotes,
-                verifiers);
+    public ArtifactDescriptorCache getArtifactDescriptorCache() {
+        return descriptorCache;
+    }
 
-        List<FutureTask<ArtifactDescriptor>> resolveFutures = new ArrayList<>();
+    /**
+     * Returns the limiter of concurrent downloads from remote repositories, e.g. to monitor its
+     * current limit and queue depth.
+     */
+    public AdaptiveLimiter getDownloadLimiter() {
+        return downloads;
+    }
 
-        for (DependencyNode node : dependencies) {
+    public MissingArtifactCache getMissingArtifactCache() {
+        return missingArtifacts;
+    }
 
-            FutureTask<ArtifactDescriptor> resolveFuture = new FutureTask<>(() -> {
-                Artifact dependency = node.getArtifact();
-                if (dependency.getFile() == null) {
-                    try {
-                        ArtifactResult result = repoSystem.resolveArtifact(session,
-                                new ArtifactRequest(node));
-                        dependency = result.getArtifact();
-                    }
-                    catch (ArtifactResolutionException e) {
-                        logger.warn(
-                                String.format("Failed to resolve rug archive for %s:%s:%s",
-                                        artifact.group(), artifact.artifact(), artifact.version()),
-                                e);
-                        throw new com.atomist.rug.resolver.maven.DependencyCollectionException(e);
+    /**
+     * Returns the latencies of the hedged lookups against each remote repository.
+     */
+    public RepositoryStats getRepositoryStats() {
+        return repositoryStats;
+    }
 
-                    }
-                }
-                return new DefaultArtifactDescriptor(dependency.getGroupId(),
-                        dependency.getArtifactId(), dependency.getBaseVersion(),
-                        ArtifactDescriptorFactory.toExtension(dependency.getExtension()),
-                        ArtifactDescriptorFactory.toScope(node.getDependency().getScope()),
-                        dependency.getFile().getAbsolutePath());
-            });
+    public void setExclusions(List<String> exclusions) {
+        this.exclusions = exclusions;
+    }
+
+    public void setProxySelector(ProxySelector proxySelector) {
+        this.proxySelector = proxySelector;
+    }
 
-            resolveFutures.add(resolveFuture);
-            executorService.submit(resolveFuture);
+    /**
+     * Enables hedged lookups if <code>maven.hedged-lookups</code> is set; without a connector
+     * provider artifacts are looked up in one repository after the other.
+     */
+    @Autowired(required = false)
+    public void setRepositoryConnectorProvider(RepositoryConnectorProvider connectorProvider) {
+        this.hedgedLookup = new HedgedLookup(connectorProvider, repositoryStats,
+                executorService);
+    }
+
+    public void setTransferListener(TransferListener transferListener) {
+        this.transferListener = transferListener;
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            // Only abandon this caller's wait as the resolution might be shared with others
+            future.cancel(false);
+            throw new DependencyResolverException("Interrupt exception occurred", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof DependencyResolverException) {
+                throw (DependencyResolverException) e.getCause();
+            }
+            else {
+                throw new DependencyResolverException(e.getMessage(), e);
+            }
+        }
+    }
 
+    /**
+     * Waits for all downloads of a resolution. In fail-fast mode the first failed download fails
+     * the resolution right away and cancels the remaining downloads.
+     */
+    private <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        if (properties.isFailFast()) {
+            return Futures.allOfFailFast(futures);
         }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+    }
 
-        return resolveFutures.stream().map(rt -> {
-            try {
-                return rt.get();
+    /**
+     * Runs the given work with a new {@link Cancellation}. Tasks and transfers of the work still
+     * running once the returned future completed, e.g. because it got cancelled, are cancelled.
+     */
+    private <T> CompletableFuture<T> cancellable(
+            Function<Cancellation, CompletableFuture<T>> work) {
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.whenComplete((v, t) -> cancellation.cancel());
+        work.apply(cancellation).whenComplete((v, t) -> {
+            if (t != null) {
+                result.completeExceptionally(Futures.unwrap(t));
+            }
+            else {
+                result.complete(v);
             }
-            catch (InterruptedException e) {
-                throw new DependencyResolverException("Interrupt exception occurred", e);
+        });
+        return result;
+    }
+
+    private static ScheduledExecutorService newDeadlineScheduler() {
+        ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1,
+                new BasicThreadFactory.Builder().namingPattern("maven-resolver-deadlines-%d")
+                        .daemon(true).build());
+        deadlines.setRemoveOnCancelPolicy(true);
+        return deadlines;
+    }
+
+    private <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout,
+            String requested) {
+        if (timeout > 0) {
+            ScheduledFuture<?> deadline = deadlines.schedule(
+                    () -> future.completeExceptionally(new DependencyResolverTimeoutException(
+                            String.format("Resolving %s timed out after %s ms", requested,
+                                    timeout))),
+                    timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((v, t) -> deadline.cancel(false));
+        }
+        return future;
+    }
+
+    /**
+     * Resolves the dependencies of the given archive; every dependency is passed to
+     * <code>resolved</code> as soon as it is downloaded and all candidates passed verification.
+     * The returned future completes after all of them were passed on.
+     */
+    private CompletableFuture<List<ArtifactDescriptor>> doResolveDependencies(
+            ArtifactDescriptor artifact, Cancellation cancellation,
+            Consumer<ArtifactDescriptor> resolved, DependencyVerifier... verifiers) {
+        return cancellation.supplyAsync(() -> {
+            if (logger.isInfoEnabled()) {
+                logger.info(String.format("Resolving dependencies for %s:%s:%s:%s",
+                        artifact.group(), artifact.artifact(),
+                        artifact.extension().toString().toLowerCase(), artifact.version()));
             }
-            catch (ExecutionException e) {
-                if (e.getCause() instanceof DependencyResolverException) {
-                    throw (DependencyResolverException) e.getCause();
+
+            RepositorySystemSession session = newSession(repoSystem,
+                    createDependencyRoot(artifact), cancellation, true);
+            List<RemoteRepository> remotes = properties.repositories();
+
+            List<CompletableFuture<ArtifactDescriptor>> resolveFutures = new ArrayList<>();
+            List<CompletableFuture<Void>> passedOn = new ArrayList<>();
+            // Downloads are only passed on once verification succeeded
+            CompletableFuture<Void> released = new CompletableFuture<>();
+            DownloadPrefetcher prefetcher = prefetcher(r -> resolveArtifact(
+                    coordinates(artifact), session, r, cancellation));
+            Consumer<DependencyNode> download = node -> {
+                CompletableFuture<ArtifactResult> prefetched = prefetcher.take(node);
+                CompletableFuture<ArtifactDescriptor> resolveFuture = (prefetched != null
+                        ? prefetched
+                        : resolveArtifact(coordinates(artifact), session,
+                                new ArtifactRequest(node), cancellation))
+                                        .thenApply(result -> toArtifactDescriptor(
+                                                result.getArtifact(), node));
+                resolveFutures.add(resolveFuture);
+                passedOn.add(resolveFuture.thenAcceptBoth(released, (d, v) -> resolved.accept(d)));
+            };
+
+            List<DependencyNode> verifications = new ArrayList<>();
+            collect(session, resolveFutures, prefetcher, download, d -> collectDependencies(
+                    artifact, session, remotes, d, verifications::add));
+
+            // Verify all candidates concurrently; the first failure cancels the other
+            // verifications and all downloads
+            CompletableFuture<List<DependencyNode>> verified = (verifiers.length > 0
+                    ? Futures.allOfFailFast(verifications.stream()
+                            .map(n -> verify(n, session, cancellation, verifiers))
+                            .collect(Collectors.toList()))
+                    : CompletableFuture.completedFuture(verifications));
+            return verified.whenComplete((v, t) -> {
+                if (t != null) {
+                    Futures.cancel(resolveFutures);
                 }
                 else {
-                    throw new DependencyResolverException(e.getMessage(), e);
+                    released.complete(null);
+                }
+            }).thenCompose(v -> allOf(resolveFutures))
+                    .thenCompose(dependencies -> CompletableFuture
+                            .allOf(passedOn.toArray(new CompletableFuture<?>[passedOn.size()]))
+                            .thenApply(v -> dependencies));
+        }, executorService).thenCompose(dependencies -> dependencies);
+    }
+
+    /**
+     * Resolves the rugs of the given archive. In lockfile mode a matching lockfile of a local
+     * archive pins the tree; with <code>lock</code> set the resolved tree gets written to its
+     * lockfile.
+     */
+    private CompletableFuture<ArtifactDescriptor> doResolveRugs(ArtifactDescriptor artifact,
+            Cancellation cancellation, boolean lock) {
+        return cancellation.supplyAsync(() -> {
+            if (!lock && properties.isLockfile() && artifact instanceof LocalArtifactDescriptor) {
+                Optional<Lockfile> lockfile = Lockfile.read(artifact)
+                        .filter(l -> l.matches(artifact));
+                if (lockfile.isPresent()) {
+                    return doResolveLocked(artifact, lockfile.get(), cancellation);
                 }
             }
-        }).collect(Collectors.toList());
+            if (logger.isInfoEnabled()) {
+                logger.info(String.format("Resolving rugs for %s:%s:%s:%s", artifact.group(),
+                        artifact.artifact(), artifact.extension().toString().toLowerCase(),
+                        artifact.version()));
+            }
 
+            RepositorySystemSession session = newSession(repoSystem,
+                    createDependencyRoot(artifact), cancellation, false, "*:*");
+            List<RemoteRepository> remotes = properties.repositories();
+
+            CollectRequest collectRequest = new CollectRequest();
+            collectRequest.setRoot(createDependencyRoot(artifact));
+            collectRequest.setRepositories(remotes);
+            artifact.dependencies()
+                    .forEach(ad -> collectRequest.addDependency(createDependencyRoot(ad)));
+
+            Map<String, ArtifactResult> results = new ConcurrentHashMap<>();
+            return downloadRugs(coordinates(artifact), session, collectRequest, results,
+                    cancellation).thenApply(root -> {
+                        if (lock) {
+                            Lockfile.create(artifact, root, results).write(artifact);
+                        }
+                        return processNode(root, results, new IdentityHashMap<>());
+                    });
+        }, executorService).thenCompose(tree -> tree);
     }
 
-    @Override
-    public ArtifactDescriptor resolveRugs(ArtifactDescriptor artifact)
-            throws DependencyResolverException {
-        if (logger.isInfoEnabled()) {
-            logger.info(String.format("Resolving rugs for %s:%s:%s:%s", artifact.group(),
-                    artifact.artifact(), artifact.extension().toString().toLowerCase(),
-                    artifact.version()));
-        }
+    /**
+     * Downloads the pinned files of the given lockfile without collecting the graph or resolving
+     * versions and checks them against the recorded checksums.
+     */
+    private CompletableFuture<ArtifactDescriptor> doResolveLocked(ArtifactDescriptor artifact,
+            Lockfile lockfile, Cancellation cancellation) {
+        String requested = coordinates(artifact);
+        logger.info("Resolving rugs for {} from lockfile", requested);
 
-        RepositorySystemSession session = newSession(repoSystem, createDependencyRoot(artifact),
-                false, "*:*");
+        RepositorySystemSession session = newSession(repoSystem, null, cancellation, false, "*:*");
         List<RemoteRepository> remotes = properties.repositories();
 
-        CollectRequest collectRequest = new CollectRequest();
-        collectRequest.setRoot(createDependencyRoot(artifact));
-        collectRequest.setRepositories(remotes);
-        artifact.dependencies()
-                .forEach(ad -> collectRequest.addDependency(createDependencyRoot(ad)));
+        Map<String, CompletableFuture<ArtifactResult>> downloads = new HashMap<>();
+        Stack<Lockfile.Entry> entries = new Stack<>();
+        entries.push(lockfile.root());
+        while (!entries.isEmpty()) {
+            Lockfile.Entry entry = entries.pop();
+            entries.addAll(entry.dependencies());
+            if (entry.sha1() != null) {
+                downloads.computeIfAbsent(ArtifactIdUtils.toId(entry.toArtifact()),
+                        id -> resolveArtifact(requested, session,
+                                new ArtifactRequest(entry.toArtifact(), pinned(entry, remotes),
+                                        null),
+                                cancellation).thenApply(result -> checksum(entry, result)));
+            }
+        }
+
+        return allOf(new ArrayList<>(downloads.values())).thenApply(v -> {
+            Map<String, ArtifactResult> results = new HashMap<>();
+            downloads.forEach((id, f) -> results.put(id, f.join()));
+            return processEntry(lockfile.root(), results);
+        });
+    }
+
+    /**
+     * Collects the rugs of all given archives in one pass below a synthetic root so that shared
+     * dependencies are only collected and downloaded once. The returned trees are in the order of
+     * the given archives, which need to have exact versions.
+     */
+    private CompletableFuture<List<ArtifactDescriptor>> doResolveRugs(
+            List<ArtifactDescriptor> artifacts, Cancellation cancellation) {
+        return cancellation.supplyAsync(() -> {
+            String requested = artifacts.stream().map(this::coordinates)
+                    .collect(Collectors.joining(", "));
+            logger.info("Resolving rugs for {}", requested);
+
+            RepositorySystemSession session = MergedRootsSession
+                    .create(newSession(repoSystem, null, cancellation, false, "*:*"));
+            List<RemoteRepository> remotes = properties.repositories();
+
+            CollectRequest collectRequest = new CollectRequest();
+            collectRequest.setRootArtifact(MergedRootsSession.ROOT);
+            collectRequest.setRepositories(remotes);
+            artifacts.forEach(ad -> collectRequest.addDependency(createDependencyRoot(ad)));
+
+            Map<String, ArtifactResult> results = new ConcurrentHashMap<>();
+            Map<DependencyNode, ArtifactDescriptor> built = new IdentityHashMap<>();
+            return downloadRugs(requested, session, collectRequest, results, cancellation)
+                    .thenApply(root -> {
+                        // Match the collected archives by coordinates rather than position as
+                        // relocations or failed selections could shift them
+                        Map<String, DependencyNode> children = new HashMap<>();
+                        root.getChildren().forEach(n -> {
+                            children.putIfAbsent(ArtifactIdUtils.toBaseId(n.getArtifact()), n);
+                            n.getRelocations().forEach(
+                                    r -> children.putIfAbsent(ArtifactIdUtils.toBaseId(r), n));
+                        });
+                        return artifacts.stream().map(a -> {
+                            DependencyNode node = children.get(ArtifactIdUtils
+                                    .toBaseId(createDependencyRoot(a).getArtifact()));
+                            if (node == null) {
+                                throw new DependencyResolverException(String
+                                        .format("Failed to collect rugs for %s", coordinates(a)));
+                            }
+                            return processNode(node, results, built);
+                        }).collect(Collectors.toList());
+                    });
+        }, executorService).thenCompose(trees -> trees);
+    }
+
+    /**
+     * Collects the rugs for the given request and downloads every distinct artifact of the graph
+     * once. The returned future completes with the collected root after all downloads finished;
+     * the results of the downloads are put into <code>results</code> by artifact id.
+     */
+    private CompletableFuture<DependencyNode> downloadRugs(String requested,
+            RepositorySystemSession session, CollectRequest collectRequest,
+            Map<String, ArtifactResult> results, Cancellation cancellation) {
+        Map<String, CompletableFuture<ArtifactResult>> downloads = new HashMap<>();
+        List<CompletableFuture<ArtifactResult>> resolveFutures = new ArrayList<>();
+        DownloadPrefetcher prefetcher = prefetcher(
+                r -> resolveArtifact(requested, session, r, cancellation));
+        Consumer<DependencyNode> download = node -> {
+            if (!MergedRootsSession.isRoot(node)) {
+                downloads.computeIfAbsent(ArtifactIdUtils.toId(node.getArtifact()), id -> {
+                    CompletableFuture<ArtifactResult> prefetched = prefetcher.take(node);
+                    CompletableFuture<ArtifactResult> resolveFuture = (prefetched != null
+                            ? prefetched
+                            : resolveArtifact(requested, session, new ArtifactRequest(node),
+                                    cancellation)).thenApply(result -> {
+                                        results.put(id, result);
+                                        return result;
+                                    });
+                    resolveFutures.add(resolveFuture);
+                    return resolveFuture;
+                });
+            }
+        };
+
+        DependencyNode root = collect(session, resolveFutures, prefetcher, download,
+                d -> collectRugs(requested, session, collectRequest, d));
+        return allOf(resolveFutures).thenApply(v -> root);
+    }
+
+    private CompletableFuture<ArtifactResult> resolveArtifact(String requested,
+            RepositorySystemSession session, ArtifactRequest request, Cancellation cancellation) {
+        if (isHedged(session, request)) {
+            // Look for the artifact in all repositories at once and download it from the first
+            // one that has it; if none has it let the resolver report the failure
+            return cancellation
+                    .supplyAsync(() -> isLocallyAvailable(session, request), executorService)
+                    .thenCompose(available -> (available
+                            ? CompletableFuture.completedFuture(request.getRepositories())
+                            : hedgedLookup.find(session, request.getArtifact(),
+                                    repoSystem.newResolutionRepositories(session,
+                                            withoutMissing(session, request).getRepositories()),
+                                    cancellation).thenApply(r -> r.map(Collections::singletonList)
+                                            .orElse(request.getRepositories()))))
+                    .thenCompose(repositories -> doResolveArtifact(requested, session,
+                            new ArtifactRequest(request.getArtifact(), repositories,
+                                    request.getRequestContext()).setTrace(request.getTrace()),
+                            cancellation));
+        }
+        return doResolveArtifact(requested, session, routed(request), cancellation);
+    }
+
+    /**
+     * Resolves the given artifact; downloads from remote repositories only start once the
+     * adaptive download limiter grants a permit.
+     */
+    private CompletableFuture<ArtifactResult> doResolveArtifact(String requested,
+            RepositorySystemSession session, ArtifactRequest request, Cancellation cancellation) {
+        if (request.getArtifact().getFile() != null) {
+            return cancellation.supplyAsync(
+                    () -> new ArtifactResult(request).setArtifact(request.getArtifact()),
+                    executorService);
+        }
+        return cancellation.supplyAsync(
+                () -> session.isOffline() || isLocallyAvailable(session, request),
+                executorService).thenCompose(local -> {
+                    if (local) {
+                        return download(requested, session, request, cancellation, null);
+                    }
+                    return cancellation.register(downloads.acquire()).thenCompose(permit -> {
+                        CompletableFuture<ArtifactResult> download = download(requested,
+                                session, request, cancellation, permit);
+                        download.whenComplete((r, t) -> release(permit, t));
+                        return download;
+                    });
+                });
+    }
+
+    // Remote transfers run on the download pool and their latency counts from when they started
+    private CompletableFuture<ArtifactResult> download(String requested,
+            RepositorySystemSession session, ArtifactRequest request, Cancellation cancellation,
+            AdaptiveLimiter.Permit permit) {
+        return cancellation.supplyAsync(() -> {
+            if (permit != null) {
+                permit.onStart();
+            }
+            try {
+                ArtifactResult result = repoSystem.resolveArtifact(session,
+                        withoutMissing(session, request));
+                if (result.getRepository() instanceof RemoteRepository) {
+                    routes.learn(result.getArtifact().getGroupId(),
+                            result.getRepository().getId());
+                }
+                return result;
+            }
+            catch (ArtifactResolutionException e) {
+                recordMissing(session, e);
+                logger.warn(String.format("Failed to resolve rug archive for %s", requested), e);
+                throw new com.atomist.rug.resolver.maven.DependencyCollectionException(e);
+            }
+        }, (permit != null ? downloadService : executorService));
+    }
+
+    // Only overloaded or failing repositories lower the limit; missing artifacts and cancelled
+    // downloads don't
+    private void release(AdaptiveLimiter.Permit permit, Throwable t) {
+        Throwable cause = Futures.unwrap(t);
+        if (cause == null || isNotFound(cause)) {
+            permit.onSuccess();
+        }
+        else if (cause instanceof CancellationException
+                || cause.getCause() instanceof InterruptedException) {
+            permit.onIgnore();
+        }
+        else {
+            permit.onDropped();
+        }
+    }
+
+    private boolean isNotFound(Throwable t) {
+        while (t != null && !(t instanceof ArtifactResolutionException)) {
+            t = t.getCause();
+        }
+        return t != null && ((ArtifactResolutionException) t).getResults().stream()
+                .flatMap(r -> r.getExceptions().stream())
+                .allMatch(e -> e instanceof ArtifactNotFoundException);
+    }
+
+    // Artifacts of groups with a known route go to that repository first without hedging: once a
+    // hedged lookup found the repository of a group, its other artifacts are expected there too.
+    // Should the routed repository miss one, the resolver still tries the others in order
+    private boolean isHedged(RepositorySystemSession session, ArtifactRequest request) {
+        return properties.isHedgedLookups() && hedgedLookup != null && !session.isOffline()
+                && request.getArtifact().getFile() == null
+                && request.getRepositories().size() > 1
+                && !routes.route(request.getArtifact().getGroupId()).isPresent();
+    }
+
+    private void recordMissing(RepositorySystemSession session, ArtifactResolutionException e) {
+        if (isCachingMisses(session)) {
+            missingArtifacts.record(e);
+        }
+    }
+
+    // Repositories known not to have the artifact are skipped; with none left the resolver only
+    // looks into the local repository
+    private ArtifactRequest withoutMissing(RepositorySystemSession session,
+            ArtifactRequest request) {
+        if (!isCachingMisses(session)) {
+            return request;
+        }
+        List<RemoteRepository> repositories = missingArtifacts.filter(request.getArtifact(),
+                request.getRepositories());
+        if (repositories == request.getRepositories()) {
+            return request;
+        }
+        return new ArtifactRequest(request.getArtifact(), repositories,
+                request.getRequestContext()).setTrace(request.getTrace());
+    }
+
+    // Sessions that always check for updates ask every repository again
+    private boolean isCachingMisses(RepositorySystemSession session) {
+        return !session.isOffline()
+                && !RepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(session.getUpdatePolicy());
+    }
+
+    private ArtifactRequest routed(ArtifactRequest request) {
+        List<RemoteRepository> repositories = routes.order(request.getArtifact().getGroupId(),
+                request.getRepositories());
+        if (repositories == request.getRepositories()) {
+            return request;
+        }
+        return new ArtifactRequest(request.getArtifact(), repositories,
+                request.getRequestContext()).setTrace(request.getTrace());
+    }
+
+    private boolean isLocallyAvailable(RepositorySystemSession session, ArtifactRequest request) {
+        return session.getLocalRepositoryManager()
+                .find(session, new LocalArtifactRequest(request.getArtifact(),
+                        request.getRepositories(), request.getRequestContext()))
+                .isAvailable();
+    }
+
+    private ArtifactResult checksum(Lockfile.Entry entry, ArtifactResult result) {
+        try {
+            if (!entry.sha1().equals(Lockfile.sha1(result.getArtifact().getFile()))) {
+                throw new DependencyResolverException(String.format(
+                        "Checksum of %s doesn't match the lockfile",
+                        ArtifactIdUtils.toId(result.getArtifact())));
+            }
+            return result;
+        }
+        catch (IOException e) {
+            throw new DependencyResolverException("Failed to calculate checksum", e);
+        }
+    }
 
-        List<DependencyNode> artifacts = new ArrayList<>();
-        DependencyNode root = null;
+    // Pinned artifacts are only looked up in the repository they were downloaded from if that's
+    // still configured
+    private List<RemoteRepository> pinned(Lockfile.Entry entry, List<RemoteRepository> remotes) {
+        List<RemoteRepository> repository = remotes.stream()
+                .filter(r -> r.getId().equals(entry.repository())).collect(Collectors.toList());
+        return (repository.isEmpty() ? remotes : repository);
+    }
+
+    private String coordinates(ArtifactDescriptor artifact) {
+        return String.format("%s:%s:%s", artifact.group(), artifact.artifact(),
+                artifact.version());
+    }
+
+    private String versionKey(ArtifactDescriptor artifact) {
+        return artifact.group() + ":" + artifact.artifact() + ":" + artifact.version();
+    }
+
+    private String requestKey(ArtifactDescriptor artifact) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(artifact.toString()).append("#").append(artifact.uri());
+        artifact.dependencies().forEach(d -> sb.append("#").append(d.toString()));
+        return sb.toString();
+    }
+
+    /**
+     * Runs the given collection and hands every node of the collected graph to
+     * <code>download</code> while the graph is walked. The <code>prefetcher</code> starts
+     * downloads while the collection is still running; those not taken by the walk are cancelled
+     * afterwards. Downloads already started are cancelled if the collection or the walk fails.
+     */
+    private <T> DependencyNode collect(RepositorySystemSession session,
+            List<CompletableFuture<T>> resolveFutures, DownloadPrefetcher prefetcher,
+            Consumer<DependencyNode> download,
+            Function<Consumer<DependencyNode>, DependencyNode> collection) {
+        session.getData().set(CachingArtifactDescriptorReader.LISTENER_KEY, prefetcher);
+        try {
+            return collection.apply(download);
+        }
+        catch (RuntimeException e) {
+            resolveFutures.forEach(f -> f.cancel(false));
+            throw e;
+        }
+        finally {
+            session.getData().set(CachingArtifactDescriptorReader.LISTENER_KEY, prefetcher, null);
+            prefetcher.cancel();
+        }
+    }
 
+    // Prefetches the artifacts the walk of the collected graph is going to download
+    private DownloadPrefetcher prefetcher(
+            Function<ArtifactRequest, CompletableFuture<ArtifactResult>> download) {
+        ExclusionsDependencyFilter filter = new ExclusionsDependencyFilter(exclusions);
+        return new DownloadPrefetcher(
+                a -> filter.accept(new DefaultDependencyNode(a), Collections.emptyList()),
+                download);
+    }
+
+    private DependencyNode collectRugs(String requested, RepositorySystemSession session,
+            CollectRequest collectRequest, Consumer<DependencyNode> artifacts)
+            throws DependencyResolverException {
         try {
             CollectResult collectResult = repoSystem.collectDependencies(session, collectRequest);
 
-            logger.info("Dependencies for {}:{}:{} resolved:", artifact.group(),
-                    artifact.artifact(), artifact.version());
+            logger.info("Dependencies for {} resolved:", requested);
             collectResult.getRoot().accept(new TreeDependencyVisitor(new FilteringDependencyVisitor(
                     new LogDependencyVisitor(new LogDependencyVisitor.Log() {
 
@@ -208,97 +826,24 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
                         }
 
                         public boolean visitLeave(DependencyNode node) {
-                            artifacts.add(node);
+                            artifacts.accept(node);
                             return true;
                         }
                     }),
                     new ExclusionsDependencyFilter(MavenBasedDependencyResolver.this.exclusions))));
 
             additionalVisitors.forEach(a -> collectResult.getRoot().accept(a));
-            root = collectResult.getRoot();
-
+            return collectResult.getRoot();
         }
         catch (DependencyCollectionException e) {
             throw new com.atomist.rug.resolver.maven.DependencyCollectionException(e);
         }
-
-        List<FutureTask<ArtifactDescriptor>> resolveFutures = new ArrayList<>();
-        Map<DependencyNode, String> resolvedURIs = new ConcurrentHashMap<>();
-
-        for (DependencyNode node : artifacts) {
-
-            FutureTask<ArtifactDescriptor> resolveFuture = new FutureTask<>(() -> {
-                Artifact dependency = node.getArtifact();
-                if (dependency.getFile() == null) {
-                    try {
-                        ArtifactResult result = repoSystem.resolveArtifact(session,
-                                new ArtifactRequest(node));
-                        dependency = result.getArtifact();
-                    }
-                    catch (ArtifactResolutionException e) {
-                        logger.warn(
-                                String.format("Failed to resolve rug archive for %s:%s:%s",
-                                        artifact.group(), artifact.artifact(), artifact.version()),
-                                e);
-                        throw new com.atomist.rug.resolver.maven.DependencyCollectionException(e);
-
-                    }
-                }
-                resolvedURIs.put(node, dependency.getFile().getAbsolutePath());
-                return new DefaultArtifactDescriptor(dependency.getGroupId(),
-                        dependency.getArtifactId(), dependency.getBaseVersion(),
-                        ArtifactDescriptorFactory.toExtension(dependency.getExtension()),
-                        ArtifactDescriptorFactory.toScope(node.getDependency().getScope()),
-                        dependency.getFile().getAbsolutePath());
-            });
-
-            resolveFutures.add(resolveFuture);
-            executorService.submit(resolveFuture);
-
-        }
-        resolveFutures.stream().forEach(rt -> {
-            try {
-                rt.get();
-            }
-            catch (InterruptedException e) {
-                throw new DependencyResolverException("Interrupt exception occurred", e);
-            }
-            catch (ExecutionException e) {
-                if (e.getCause() instanceof DependencyResolverException) {
-                    throw (DependencyResolverException) e.getCause();
-                }
-                else {
-                    throw new DependencyResolverException(e.getMessage(), e);
-                }
-            }
-        });
-
-        return processNode(root, resolvedURIs);
-    }
-
-    @Override
-    public String resolveVersion(ArtifactDescriptor artifact) throws DependencyResolverException {
-        RepositorySystemSession session = newSession(repoSystem, createDependencyRoot(artifact),
-                true);
-        List<RemoteRepository> remotes = properties.repositories();
-        return getVersion(artifact, session, remotes);
-    }
-
-    public void setExclusions(List<String> exclusions) {
-        this.exclusions = exclusions;
-    }
-
-    public void setProxySelector(ProxySelector proxySelector) {
-        this.proxySelector = proxySelector;
-    }
-
-    public void setTransferListener(TransferListener transferListener) {
-        this.transferListener = transferListener;
     }
 
-    private List<DependencyNode> collectDependencies(ArtifactDescriptor artifact,
+    private DependencyNode collectDependencies(ArtifactDescriptor artifact,
             RepositorySystemSession session, List<RemoteRepository> remotes,
-            DependencyVerifier... verifiers) throws DependencyResolverException {
+            Consumer<DependencyNode> artifacts, Consumer<DependencyNode> verifications)
+            throws DependencyResolverException {
 
         CollectRequest collectRequest = new CollectRequest();
         collectRequest.setRoot(createDependencyRoot(artifact));
@@ -306,8 +851,6 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
         artifact.dependencies()
                 .forEach(ad -> collectRequest.addDependency(createDependencyRoot(ad)));
 
-        List<DependencyNode> artifacts = new ArrayList<>();
-
         try {
             CollectResult collectResult = repoSystem.collectDependencies(session, collectRequest);
 
@@ -327,23 +870,14 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
 
                         public boolean visitEnter(DependencyNode node) {
                             if (shouldVerify(node, (!nodes.isEmpty() ? nodes.peek() : null))) {
-                                if (!verify(node, session, repoSystem, verifiers)) {
-                                    throw new DependencyVerificationFailedException(
-                                            String.format("Verification of %s:%s (%s) failed",
-                                                    node.getArtifact().getGroupId(),
-                                                    node.getArtifact().getArtifactId(),
-                                                    node.getArtifact().getVersion()),
-                                            node.getArtifact().getGroupId(),
-                                            node.getArtifact().getArtifactId(),
-                                            node.getArtifact().getVersion());
-                                }
+                                verifications.accept(node);
                             }
                             nodes.push(node);
                             return true;
                         }
 
                         public boolean visitLeave(DependencyNode node) {
-                            artifacts.add(node);
+                            artifacts.accept(node);
                             nodes.pop();
                             return true;
                         }
@@ -351,13 +885,11 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
                     new ExclusionsDependencyFilter(MavenBasedDependencyResolver.this.exclusions))));
 
             additionalVisitors.forEach(a -> collectResult.getRoot().accept(a));
-
+            return collectResult.getRoot();
         }
         catch (DependencyCollectionException e) {
             throw new com.atomist.rug.resolver.maven.DependencyCollectionException(e);
         }
-
-        return artifacts;
     }
 
     private String getLatestVersion(String groupId, String artifactId, String range,
@@ -409,9 +941,41 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
         return version;
     }
 
+    static boolean isRange(String version) {
+        return "latest".equals(version) || version.startsWith("(") || version.startsWith("[");
+    }
+
     private RepositorySystemSession newSession(RepositorySystem system, Dependency root,
-            boolean transformGarph, String... additionalExclusions)
+            Cancellation cancellation, boolean transformGarph, String... additionalExclusions)
             throws DependencyResolverException {
+        List<String> combinedExclusions = new ArrayList<>(this.exclusions);
+        combinedExclusions.addAll(Arrays.asList(additionalExclusions));
+
+        List<Object> key = Arrays.asList(transformGarph, combinedExclusions,
+                properties.isOffline(), properties.isCacheMetadata(), proxySelector,
+                transferListener);
+        SessionTemplate template = sessions.compute(key,
+                (k, t) -> (t == null || t.isExpired()
+                        ? new SessionTemplate(createSession(transformGarph, combinedExclusions))
+                        : t));
+
+        // Copying the read-only template is cheap; it shares the local repository manager,
+        // selectors and the repository cache but gets its own per-request session data
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession(
+                template.session);
+        session.setData(new DefaultSessionData());
+        if (!properties.isCacheMetadata()) {
+            // The repository cache holds resolved versions and descriptors; without metadata
+            // caching every call needs to see updated metadata
+            session.setCache(new DefaultRepositoryCache());
+        }
+        session.setTransferListener(
+                new CancellingTransferListener(session.getTransferListener(), cancellation));
+        return session;
+    }
+
+    private DefaultRepositorySystemSession createSession(boolean transformGarph,
+            List<String> combinedExclusions) throws DependencyResolverException {
         DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
 
         // Use special LocalRepositoryManager to enable concurrent use
@@ -423,17 +987,11 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
         catch (NoLocalRepositoryManagerException e) {
             throw new DependencyResolverException("Error initiating repository session", e);
         }
-        session.setAuthenticationSelector(repository -> {
-            Optional<MavenProperties.Repo> repo = properties.getPomRepos().stream()
-                    .filter(r -> repository.getUrl().startsWith(r.getUrl())).findAny();
-            if (repo.isPresent()) {
-                return repo.get().getAuth().authentication();
-            }
-            return null;
-        });
-
-        List<String> combinedExclusions = new ArrayList<>(this.exclusions);
-        combinedExclusions.addAll(Arrays.asList(additionalExclusions));
+        // Authentications of all repositories by URL prefix; looked up for every request
+        PrefixTrie<Authentication> authentications = new PrefixTrie<>();
+        properties.getPomRepos()
+                .forEach(r -> authentications.put(r.getUrl(), r.getAuth().authentication()));
+        session.setAuthenticationSelector(repository -> authentications.find(repository.getUrl()));
 
         List<Exclusion> exclusions = combinedExclusions.stream().map(e -> {
             String[] parts = e.split(":");
@@ -463,27 +1021,84 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
         // Needed for proper normalization of snapshot versions
         session.setConfigProperty("aether.artifactResolver.snapshotNormalization", true);
 
+        // Shared by all sessions copied from this one so that descriptors are reused, unless
+        // metadata isn't cached
+        session.setCache(new DefaultRepositoryCache());
+        // Shared by all sessions of this resolver; see CachingArtifactDescriptorReader
+        session.setConfigProperty(CachingArtifactDescriptorReader.CACHE_KEY, descriptorCache);
+        session.setConfigProperty(CachingArtifactDescriptorReader.ROUTES_KEY, routes);
+        session.setReadOnly();
+
         return session;
     }
 
-    private ArtifactDescriptor processNode(DependencyNode node,
-            Map<DependencyNode, String> resolvedURIs) {
-        Artifact dependency = node.getArtifact();
-        DefaultArtifactDescriptor artifact = new DefaultArtifactDescriptor(dependency.getGroupId(),
+    private ArtifactDescriptor toArtifactDescriptor(Artifact dependency, DependencyNode node) {
+        return ImmutableArtifactDescriptor.of(dependency.getGroupId(),
                 dependency.getArtifactId(), dependency.getBaseVersion(),
                 ArtifactDescriptorFactory.toExtension(dependency.getExtension()),
                 ArtifactDescriptorFactory.toScope(node.getDependency().getScope()),
-                resolvedURIs.get(node));
-        node.getChildren().forEach(d -> artifact.addDependency(processNode(d, resolvedURIs)));
+                dependency.getFile().getAbsolutePath(), Collections.emptyList());
+    }
+
+    /**
+     * Builds the descriptor tree for the given collected node; nodes shared in the graph are built
+     * once and identical subtrees are hash-consed, so that the result is a DAG.
+     */
+    private ArtifactDescriptor processNode(DependencyNode node,
+            Map<String, ArtifactResult> results, Map<DependencyNode, ArtifactDescriptor> built) {
+        ArtifactDescriptor artifact = built.get(node);
+        if (artifact == null) {
+            Artifact dependency = node.getArtifact();
+            artifact = ImmutableArtifactDescriptor.of(dependency.getGroupId(),
+                    dependency.getArtifactId(), dependency.getBaseVersion(),
+                    ArtifactDescriptorFactory.toExtension(dependency.getExtension()),
+                    ArtifactDescriptorFactory.toScope(node.getDependency().getScope()),
+                    path(results.get(ArtifactIdUtils.toId(dependency))),
+                    node.getChildren().stream().map(d -> processNode(d, results, built))
+                            .collect(Collectors.toList()));
+            built.put(node, artifact);
+        }
         return artifact;
     }
 
+    private ArtifactDescriptor processEntry(Lockfile.Entry entry,
+            Map<String, ArtifactResult> results) {
+        Artifact dependency = entry.toArtifact();
+        return ImmutableArtifactDescriptor.of(dependency.getGroupId(),
+                dependency.getArtifactId(), dependency.getBaseVersion(),
+                ArtifactDescriptorFactory.toExtension(dependency.getExtension()),
+                ArtifactDescriptorFactory.toScope(entry.scope()),
+                path(results.get(ArtifactIdUtils.toId(dependency))), entry.dependencies()
+                        .stream().map(d -> processEntry(d, results)).collect(Collectors.toList()));
+    }
+
+    private String path(ArtifactResult result) {
+        return (result != null ? result.getArtifact().getFile().getAbsolutePath() : null);
+    }
+
     private void raiseEvent(Consumer<DependencyVerificationListener> c) {
         this.verificationListeners.forEach(v -> c.accept(v));
     }
 
+    private CompletableFuture<DependencyNode> verify(DependencyNode node,
+            RepositorySystemSession session, Cancellation cancellation,
+            DependencyVerifier... verifiers) {
+        return cancellation.supplyAsync(() -> {
+            if (!verify(node, session, repoSystem, cancellation, verifiers)) {
+                throw new DependencyVerificationFailedException(
+                        String.format("Verification of %s:%s (%s) failed",
+                                node.getArtifact().getGroupId(),
+                                node.getArtifact().getArtifactId(),
+                                node.getArtifact().getVersion()),
+                        node.getArtifact().getGroupId(), node.getArtifact().getArtifactId(),
+                        node.getArtifact().getVersion());
+            }
+            return node;
+        }, executorService);
+    }
+
     private boolean verify(DependencyNode node, RepositorySystemSession session,
-            RepositorySystem system, DependencyVerifier... verifiers) {
+            RepositorySystem system, Cancellation cancellation, DependencyVerifier... verifiers) {
         List<DependencyVerifier> vs = Arrays.asList(verifiers);
         Artifact na = node.getArtifact();
         boolean result = true;
@@ -502,11 +1117,21 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
                         node.getArtifact().getArtifactId(), node.getArtifact().getClassifier(),
                         "pom.asc", node.getArtifact().getVersion());
 
-                List<ArtifactResult> resolveResult = system.resolveArtifacts(session, Arrays.asList(
-                        new ArtifactRequest(node),
-                        new ArtifactRequest(signatureArtifact, node.getRepositories(), null),
-                        new ArtifactRequest(pomArtifact, node.getRepositories(), null),
-                        new ArtifactRequest(pomSignatureArtifact, node.getRepositories(), null)));
+                List<ArtifactResult> resolveResult;
+                try {
+                    resolveResult = system.resolveArtifacts(session, Arrays.asList(
+                            withoutMissing(session, new ArtifactRequest(node)),
+                            withoutMissing(session, new ArtifactRequest(signatureArtifact,
+                                    node.getRepositories(), null)),
+                            withoutMissing(session, new ArtifactRequest(pomArtifact,
+                                    node.getRepositories(), null)),
+                            withoutMissing(session, new ArtifactRequest(pomSignatureArtifact,
+                                    node.getRepositories(), null))));
+                }
+                catch (ArtifactResolutionException e) {
+                    recordMissing(session, e);
+                    throw e;
+                }
 
                 Optional<ArtifactDescriptor> jar = findArtifact("jar", resolveResult);
                 Optional<ArtifactDescriptor> asc = findArtifact("jar.asc", resolveResult);
@@ -533,7 +1158,16 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
             }
             catch (Exception e) {
                 result = false;
-                raiseEvent(l -> l.failed(na.getGroupId(), na.getArtifactId(), na.getVersion(), e));
+                // Verifications of cancelled resolutions, e.g. after a sibling failed, fail with
+                // the interrupted downloads; they didn't fail verification
+                if (cancellation.isCancelled()) {
+                    raiseEvent(l -> l.cancelled(na.getGroupId(), na.getArtifactId(),
+                            na.getVersion()));
+                }
+                else {
+                    raiseEvent(l -> l.failed(na.getGroupId(), na.getArtifactId(), na.getVersion(),
+                            e));
+                }
                 throw new DependencyVerificationFailedException(
                         String.format("Verification of %s:%s (%s) failed",
                                 node.getArtifact().getGroupId(), node.getArtifact().getArtifactId(),
@@ -548,12 +1182,12 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
     private Optional<ArtifactDescriptor> findArtifact(String extension, List<ArtifactResult> resolveResult) {
         return (Optional<ArtifactDescriptor>) resolveResult.stream()
                 .filter(a -> a.getArtifact().getExtension().equals(extension))
-                .map(a -> (ArtifactDescriptor) new DefaultArtifactDescriptor(
+                .map(a -> (ArtifactDescriptor) ImmutableArtifactDescriptor.of(
                         a.getArtifact().getGroupId(), a.getArtifact().getArtifactId(),
                         a.getArtifact().getVersion(),
                         ArtifactDescriptorFactory.toExtension(a.getArtifact().getExtension()),
                         Scope.COMPILE, a.getArtifact().getClassifier(),
-                        a.getArtifact().getFile().getAbsolutePath()))
+                        a.getArtifact().getFile().getAbsolutePath(), Collections.emptyList()))
                 .findFirst();
     }
 
@@ -587,4 +1221,182 @@ public class MavenBasedDependencyResolver implements DependencyResolver {
             return false;
         }
     }
+
+    private class SessionTemplate {
+
+        private final long created = System.currentTimeMillis();
+        private final RepositorySystemSession session;
+
+        public SessionTemplate(RepositorySystemSession session) {
+            this.session = session;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - created > properties.getSessionTimeout();
+        }
+    }
+
+    private class AsyncResolver implements AsyncDependencyResolver {
+
+        private final long timeout;
+
+        public AsyncResolver(long timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void addDependencyVerificationListener(DependencyVerificationListener listener) {
+            MavenBasedDependencyResolver.this.addDependencyVerificationListener(listener);
+        }
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(
+                ArtifactDescriptor artifact, DependencyVerifier... verifiers) {
+            // Concurrent calls for the same artifact and verifiers share one resolution; every
+            // caller gets its own copy of the resulting list
+            List<Object> key = Arrays.asList(requestKey(artifact), Arrays.asList(verifiers));
+            CompletableFuture<List<ArtifactDescriptor>> view = within(
+                    dependenciesInFlight.submit(key,
+                            () -> cancellable(
+                                    c -> doResolveDependencies(artifact, c, d -> {}, verifiers))),
+                    timeout, coordinates(artifact));
+            CompletableFuture<List<ArtifactDescriptor>> dependencies = view
+                    .thenApply(d -> new ArrayList<>(d));
+            dependencies.whenComplete((v, t) -> view.cancel(false));
+            return dependencies;
+        }
+
+        @Override
+        public CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact) {
+            return within(rugsInFlight.submit(requestKey(artifact),
+                    () -> cancellable(c -> doResolveRugs(artifact, c, false))), timeout,
+                    coordinates(artifact));
+        }
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveRugs(
+                Collection<ArtifactDescriptor> artifacts) {
+            // Archives with explicit dependencies get those added to their own root and ranged
+            // versions expand to several nodes below a synthetic root; neither can be collected
+            // together with others
+            List<ArtifactDescriptor> mergeable = artifacts.stream()
+                    .filter(a -> a.dependencies().isEmpty() && !isRange(a.version()))
+                    .distinct().collect(Collectors.toList());
+            if (mergeable.size() < 2) {
+                return AsyncDependencyResolver.super.resolveRugs(artifacts);
+            }
+
+            // Archives already being resolved join those resolutions; all others are collected
+            // together and share the merged resolution
+            List<ArtifactDescriptor> started = new ArrayList<>();
+            CompletableFuture<List<ArtifactDescriptor>> merged = new CompletableFuture<>();
+            AtomicInteger waiting = new AtomicInteger();
+            Map<ArtifactDescriptor, CompletableFuture<ArtifactDescriptor>> flights =
+                    new HashMap<>();
+            for (ArtifactDescriptor artifact : mergeable) {
+                flights.put(artifact, within(rugsInFlight.submit(requestKey(artifact), () -> {
+                    int index = started.size();
+                    started.add(artifact);
+                    waiting.incrementAndGet();
+                    CompletableFuture<ArtifactDescriptor> tree = merged
+                            .thenApply(t -> t.get(index));
+                    tree.whenComplete((v, t) -> {
+                        if (tree.isCancelled() && waiting.decrementAndGet() == 0) {
+                            merged.cancel(false);
+                        }
+                    });
+                    return tree;
+                }), timeout, coordinates(artifact)));
+            }
+            if (!started.isEmpty()) {
+                CompletableFuture<List<ArtifactDescriptor>> resolution = cancellable(
+                        c -> (started.size() > 1 ? doResolveRugs(started, c)
+                                : doResolveRugs(started.get(0), c, false)
+                                        .thenApply(Collections::singletonList)));
+                merged.whenComplete((v, t) -> resolution.cancel(false));
+                resolution.whenComplete((v, t) -> {
+                    if (t != null) {
+                        merged.completeExceptionally(t);
+                    }
+                    else {
+                        merged.complete(v);
+                    }
+                });
+            }
+
+            List<CompletableFuture<ArtifactDescriptor>> trees = new ArrayList<>();
+            for (ArtifactDescriptor artifact : artifacts) {
+                CompletableFuture<ArtifactDescriptor> flight = flights.get(artifact);
+                trees.add(flight != null ? flight : resolveRugs(artifact));
+            }
+            return Futures.allOfFailFast(trees);
+        }
+
+        @Override
+        public CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact) {
+            if (!isRange(artifact.version())) {
+                return CompletableFuture.completedFuture(artifact.version());
+            }
+            return within(cancellable(c -> c.supplyAsync(() -> {
+                RepositorySystemSession session = newSession(repoSystem,
+                        createDependencyRoot(artifact), c, true);
+                List<RemoteRepository> remotes = properties.repositories();
+                return getVersion(artifact, session, remotes);
+            }, executorService)), timeout, coordinates(artifact));
+        }
+
+        @Override
+        public CompletableFuture<Map<ArtifactDescriptor, String>> resolveVersions(
+                Collection<ArtifactDescriptor> artifacts) {
+            List<ArtifactDescriptor> requested = new ArrayList<>(artifacts);
+            if (requested.stream().noneMatch(a -> isRange(a.version()))) {
+                Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+                requested.forEach(a -> result.put(a, a.version()));
+                return CompletableFuture.completedFuture(result);
+            }
+            return within(cancellable(c -> c.supplyAsync(() -> {
+                // All range queries share one session and run concurrently; exact versions
+                // don't need a lookup
+                RepositorySystemSession session = newSession(repoSystem, null, c, true);
+                List<RemoteRepository> remotes = properties.repositories();
+
+                Map<String, CompletableFuture<String>> versions = new LinkedHashMap<>();
+                requested.forEach(a -> versions.computeIfAbsent(versionKey(a),
+                        k -> (isRange(a.version())
+                                ? c.supplyAsync(() -> getVersion(a, session, remotes),
+                                        executorService)
+                                : CompletableFuture.completedFuture(a.version()))));
+
+                return Futures.allOfFailFast(new ArrayList<>(versions.values())).thenApply(v -> {
+                    Map<ArtifactDescriptor, String> result = new LinkedHashMap<>();
+                    requested.forEach(a -> result.put(a, versions.get(versionKey(a)).join()));
+                    return result;
+                });
+            }, executorService).thenCompose(versions -> versions)), timeout,
+                    String.format("versions of %s archives", requested.size()));
+        }
+
+        @Override
+        public void streamDependencies(ArtifactDescriptor artifact,
+                Subscriber<ArtifactDescriptor, List<ArtifactDescriptor>> subscriber,
+                DependencyVerifier... verifiers) {
+            // Every stream needs its own callbacks, so streams don't share resolutions
+            BufferedSubscription<ArtifactDescriptor, List<ArtifactDescriptor>> subscription =
+                    new BufferedSubscription<>(subscriber);
+            subscriber.onSubscribe(subscription);
+            CompletableFuture<List<ArtifactDescriptor>> dependencies = within(
+                    cancellable(c -> doResolveDependencies(artifact, c, subscription::offer,
+                            verifiers)),
+                    timeout, coordinates(artifact));
+            subscription.onCancel(() -> dependencies.cancel(false));
+            dependencies.whenComplete((d, t) -> {
+                if (t != null) {
+                    subscription.error(Futures.unwrap(t));
+                }
+                else {
+                    subscription.complete(d);
+                }
+            });
+        }
+    }
 }
@@ -5,7 +5,9 @@ import java.util.concurrent.ExecutorService;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
 import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.impl.RepositoryConnectorProvider;
 import org.eclipse.aether.impl.SyncContextFactory;
 import org.eclipse.aether.impl.UpdateCheckManager;
 import org.eclipse.aether.impl.UpdatePolicyAnalyzer;
@@ -21,6 +23,7 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.atomist.rug.resolver.concurrent.ExecutorStrategies;
 import com.atomist.rug.resolver.concurrent.MdcThreadPoolExecutor;
 
 import io.takari.aether.localrepo.TakariUpdateCheckManager;
@@ -31,14 +34,34 @@ import io.takari.filemanager.internal.DefaultFileManager;
 @EnableConfigurationProperties(MavenProperties.class)
 public class MavenConfiguration {
 
+    @Bean
+    @Qualifier("maven-download-pool")
+    public ExecutorService mavenDownloadExecutorService(MavenProperties properties) {
+        // Remote transfers block on I/O and are gated by the adaptive download limit, so the pool
+        // can grow to the highest limit; idle threads go away again
+        return MdcThreadPoolExecutor.newElasticThreadPool(properties.getMaxDownloadConcurrency(),
+                "maven-download-pool");
+    }
+
     @Bean
     @Qualifier("maven-resolver-pool")
-    public ExecutorService mavenExecutorService() {
-        return MdcThreadPoolExecutor.newFixedThreadPool(10, "maven-resolver-pool");
+    public ExecutorService mavenExecutorService(MavenProperties properties) {
+        return ExecutorStrategies.forName(properties.getExecutor())
+                .newExecutor("maven-resolver-pool", properties.getDownloadConcurrency());
+    }
+
+    @Bean
+    public RepositoryConnectorProvider repositoryConnectorProvider() {
+        return serviceLocator().getService(RepositoryConnectorProvider.class);
     }
 
     @Bean
     public RepositorySystem repositorySystem() {
+        return serviceLocator().getService(RepositorySystem.class);
+    }
+
+    @Bean
+    public ServiceLocator serviceLocator() {
         DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
 
         locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
@@ -49,8 +72,9 @@ public class MavenConfiguration {
         locator.setService(SyncContextFactory.class, LockingSyncContextFactory.class);
         locator.setService(FileProcessor.class, LockingFileProcessor.class);
         locator.setService(UpdateCheckManager.class, ServiceEnabledTakariUpdateCheckManager.class);
+        locator.setService(ArtifactDescriptorReader.class, CachingArtifactDescriptorReader.class);
 
-        return locator.getService(RepositorySystem.class);
+        return locator;
     }
     
     public static class ServiceEnabledTakariUpdateCheckManager extends TakariUpdateCheckManager implements Service {
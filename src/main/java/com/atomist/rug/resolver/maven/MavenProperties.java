@@ -16,18 +16,67 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public class MavenProperties {
 
     private boolean cacheMetadata = true;
+    // Maximum weight of cached artifact descriptors, roughly the number of dependencies held
+    private long descriptorCacheSize = 100000;
+    // Initial number of concurrent downloads; adapts to the latency and errors of the repositories
+    private int downloadConcurrency = 10;
     private List<String> exclusions = new ArrayList<>();
+    // Executor strategy of the resolver pool: fixed, work-stealing, virtual or a class name
+    private String executor = "fixed";
+    private boolean failFast = true;
+    // Look up missing artifacts in all remote repositories at once, until a repository got
+    // learned for their groupId; version metadata is still read from each repository in turn
+    private boolean hedgedLookups = false;
+    // Resolve local archives from their lockfile if it matches their dependencies
+    private boolean lockfile = false;
+    // Upper bound of the adaptive number of concurrent downloads and of the download pool's threads
+    private int maxDownloadConcurrency = 64;
+    // Signatures and metadata missing from a remote repository aren't requested from it again
+    // for 1 hour unless metadata isn't cached; 0 disables the cache
+    private long missingArtifactTimeout = 1000 * 60 * 60;
     private boolean offline = false;
     private List<Repo> pomRepos = new ArrayList<>();
+    // Local repository; also holds learned routes and cached misses, so it needs to be a
+    // persistent directory for them to survive restarts
     private String repoLocation = System.getProperty("java.io.tmpdir") + "/.m2/repository/"
             + UUID.randomUUID().toString();
 
     private Map<String, Repo> repos = new HashMap<>();
+    // Resolver calls fail after 10 minutes; 0 disables the deadline
+    private long resolveTimeout = 1000 * 60 * 10;
+    // Repository sessions and their caches are rebuilt after 10 minutes
+    private long sessionTimeout = 1000 * 60 * 10;
+    // Cached snapshot artifact descriptors expire after 10 minutes
+    private long snapshotDescriptorTimeout = 1000 * 60 * 10;
+    // Archives resolved at startup as group:artifact(:extension):version; versions can be ranges
+    private List<String> warmUp = new ArrayList<>();
+    // Number of archives resolved concurrently during warm-up
+    private int warmUpConcurrency = 4;
+
+    public long getDescriptorCacheSize() {
+        return descriptorCacheSize;
+    }
+
+    public int getDownloadConcurrency() {
+        return downloadConcurrency;
+    }
 
     public List<String> getExclusions() {
         return exclusions;
     }
 
+    public String getExecutor() {
+        return executor;
+    }
+
+    public int getMaxDownloadConcurrency() {
+        return maxDownloadConcurrency;
+    }
+
+    public long getMissingArtifactTimeout() {
+        return missingArtifactTimeout;
+    }
+
     public List<Repo> getPomRepos() {
         return pomRepos;
     }
@@ -40,10 +89,42 @@ public class MavenProperties {
         return repos;
     }
 
+    public long getResolveTimeout() {
+        return resolveTimeout;
+    }
+
+    public long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public long getSnapshotDescriptorTimeout() {
+        return snapshotDescriptorTimeout;
+    }
+
+    public List<String> getWarmUp() {
+        return warmUp;
+    }
+
+    public int getWarmUpConcurrency() {
+        return warmUpConcurrency;
+    }
+
     public boolean isCacheMetadata() {
         return cacheMetadata;
     }
 
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public boolean isHedgedLookups() {
+        return hedgedLookups;
+    }
+
+    public boolean isLockfile() {
+        return lockfile;
+    }
+
     public boolean isOffline() {
         return offline;
     }
@@ -57,10 +138,42 @@ public class MavenProperties {
         this.cacheMetadata = cacheMetadata;
     }
 
+    public void setDescriptorCacheSize(long descriptorCacheSize) {
+        this.descriptorCacheSize = descriptorCacheSize;
+    }
+
+    public void setDownloadConcurrency(int downloadConcurrency) {
+        this.downloadConcurrency = downloadConcurrency;
+    }
+
     public void setExclusions(List<String> exclusions) {
         this.exclusions = exclusions;
     }
 
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public void setHedgedLookups(boolean hedgedLookups) {
+        this.hedgedLookups = hedgedLookups;
+    }
+
+    public void setLockfile(boolean lockfile) {
+        this.lockfile = lockfile;
+    }
+
+    public void setMaxDownloadConcurrency(int maxDownloadConcurrency) {
+        this.maxDownloadConcurrency = maxDownloadConcurrency;
+    }
+
+    public void setMissingArtifactTimeout(long missingArtifactTimeout) {
+        this.missingArtifactTimeout = missingArtifactTimeout;
+    }
+
     public void setOffline(boolean offline) {
         this.offline = offline;
     }
@@ -77,6 +190,26 @@ public class MavenProperties {
         this.repos = repos;
     }
 
+    public void setResolveTimeout(long resolveTimeout) {
+        this.resolveTimeout = resolveTimeout;
+    }
+
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    public void setSnapshotDescriptorTimeout(long snapshotDescriptorTimeout) {
+        this.snapshotDescriptorTimeout = snapshotDescriptorTimeout;
+    }
+
+    public void setWarmUp(List<String> warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public void setWarmUpConcurrency(int warmUpConcurrency) {
+        this.warmUpConcurrency = warmUpConcurrency;
+    }
+
     public static class Auth {
 
         private String password;
@@ -0,0 +1,142 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.atomist.rug.resolver.ArtifactDescriptor;
+import com.atomist.rug.resolver.ArtifactDescriptorFactory;
+import com.atomist.rug.resolver.AsyncDependencyResolver;
+import com.atomist.rug.resolver.ImmutableArtifactDescriptor;
+
+/**
+ * Resolves the rugs of the archives configured in <code>maven.warm-up</code> at startup so that
+ * their files are in the local repository before the first real request needs them.
+ * </p>
+ * At most <code>maven.warm-up-concurrency</code> archives are resolved at a time. Failures are
+ * logged and don't prevent the warm-up from becoming ready; readiness only signals that every
+ * configured archive got a resolution attempt.
+ */
+@Component
+public class MavenWarmUp implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(MavenWarmUp.class);
+
+    private final List<ArtifactDescriptor> artifacts;
+    private final int concurrency;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private AtomicInteger remaining;
+    private final AsyncDependencyResolver resolver;
+
+    @Autowired
+    public MavenWarmUp(MavenBasedDependencyResolver resolver, MavenProperties properties) {
+        this(resolver.async(), properties);
+    }
+
+    MavenWarmUp(AsyncDependencyResolver resolver, MavenProperties properties) {
+        this.resolver = resolver;
+        this.artifacts = properties.getWarmUp().stream().map(MavenWarmUp::toArtifact)
+                .collect(Collectors.toList());
+        this.concurrency = Math.max(1, properties.getWarmUpConcurrency());
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    /**
+     * Starts the warm-up without blocking; calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (ready.isDone() || remaining != null) {
+            return;
+        }
+        if (artifacts.isEmpty()) {
+            ready.complete(null);
+            return;
+        }
+        logger.info("Warming up local repository with {} archives", artifacts.size());
+        Queue<ArtifactDescriptor> queue = new ConcurrentLinkedQueue<>(artifacts);
+        remaining = new AtomicInteger(artifacts.size());
+        for (int i = 0; i < Math.min(concurrency, artifacts.size()); i++) {
+            next(queue);
+        }
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /**
+     * Waits for the warm-up to finish; returns <code>false</code> if it didn't within the given
+     * time.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            ready.get(timeout, unit);
+            return true;
+        }
+        catch (TimeoutException e) {
+            return false;
+        }
+        catch (ExecutionException e) {
+            // The warm-up never fails as a whole
+            return true;
+        }
+    }
+
+    private void next(Queue<ArtifactDescriptor> queue) {
+        ArtifactDescriptor artifact = queue.poll();
+        if (artifact == null) {
+            return;
+        }
+        resolve(artifact).whenComplete((tree, t) -> {
+            if (t != null) {
+                logger.warn(String.format("Failed to warm up %s:%s:%s", artifact.group(),
+                        artifact.artifact(), artifact.version()), t);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                logger.info("Warming up local repository completed");
+                ready.complete(null);
+            }
+            next(queue);
+        });
+    }
+
+    private CompletableFuture<ArtifactDescriptor> resolve(ArtifactDescriptor artifact) {
+        String version = artifact.version();
+        if ("latest".equals(version) || version.startsWith("(") || version.startsWith("[")) {
+            return resolver.resolveVersion(artifact).thenCompose(
+                    v -> resolver.resolveRugs(ArtifactDescriptorFactory.copyFrom(artifact, v)));
+        }
+        return resolver.resolveRugs(artifact);
+    }
+
+    private static ArtifactDescriptor toArtifact(String coordinates) {
+        String[] segments = coordinates.split(":");
+        if (segments.length == 3) {
+            return ImmutableArtifactDescriptor.of(segments[0], segments[1], segments[2],
+                    ArtifactDescriptor.Extension.ZIP);
+        }
+        else if (segments.length == 4) {
+            return ImmutableArtifactDescriptor.of(segments[0], segments[1], segments[3],
+                    ArtifactDescriptorFactory.toExtension(segments[2]));
+        }
+        throw new IllegalArgumentException(String.format(
+                "Warm-up archive %s should be of format <group>:<artifact>(:<extension>):<version>",
+                coordinates));
+    }
+}
@@ -0,0 +1,110 @@
+package com.atomist.rug.resolver.maven;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencyManagement;
+import org.eclipse.aether.collection.DependencyManager;
+import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.collection.DependencyTraverser;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+
+/**
+ * Prepares sessions that collect several archives in one pass below a synthetic root artifact.
+ * </p>
+ * Aether's selectors, managers and traversers are depth aware; e.g. optional dependencies are only
+ * kept for direct dependencies of the root. The sessions created here insert a pass-through level
+ * for the synthetic root so that every archive is collected as if it had been the root itself.
+ */
+class MergedRootsSession {
+
+    public static final Artifact ROOT = new DefaultArtifact("com.atomist", "rug-resolver-roots",
+            "pom", "0.0.0");
+
+    public static RepositorySystemSession create(RepositorySystemSession session) {
+        DefaultRepositorySystemSession merged = new DefaultRepositorySystemSession(session);
+        if (session.getDependencySelector() != null) {
+            merged.setDependencySelector(new RootSelector(session.getDependencySelector(), true));
+        }
+        if (session.getDependencyManager() != null) {
+            merged.setDependencyManager(new RootManager(session.getDependencyManager(), true));
+        }
+        if (session.getDependencyTraverser() != null) {
+            merged.setDependencyTraverser(
+                    new RootTraverser(session.getDependencyTraverser(), true));
+        }
+        return merged;
+    }
+
+    public static boolean isRoot(DependencyNode node) {
+        return node.getDependency() == null;
+    }
+
+    private static class RootSelector implements DependencySelector {
+
+        private final DependencySelector delegate;
+        private final boolean root;
+
+        public RootSelector(DependencySelector delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public boolean selectDependency(Dependency dependency) {
+            return true;
+        }
+
+        @Override
+        public DependencySelector deriveChildSelector(DependencyCollectionContext context) {
+            return (root ? new RootSelector(delegate, false)
+                    : delegate.deriveChildSelector(context));
+        }
+    }
+
+    private static class RootManager implements DependencyManager {
+
+        private final DependencyManager delegate;
+        private final boolean root;
+
+        public RootManager(DependencyManager delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public DependencyManagement manageDependency(Dependency dependency) {
+            return null;
+        }
+
+        @Override
+        public DependencyManager deriveChildManager(DependencyCollectionContext context) {
+            return (root ? new RootManager(delegate, false) : delegate.deriveChildManager(context));
+        }
+    }
+
+    private static class RootTraverser implements DependencyTraverser {
+
+        private final DependencyTraverser delegate;
+        private final boolean root;
+
+        public RootTraverser(DependencyTraverser delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public boolean traverseDependency(Dependency dependency) {
+            return true;
+        }
+
+        @Override
+        public DependencyTraverser deriveChildTraverser(DependencyCollectionContext context) {
+            return (root ? new RootTraverser(delegate, false)
+                    : delegate.deriveChildTraverser(context));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.atomist.rug.resolver.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+
+/**
+ * Remembers which optional artifacts, i.e. signatures and metadata json files, a remote
+ * repository doesn't have, so that they aren't requested from that repository again until the
+ * configured timeout expired. Misses of any other artifact aren't cached, as they fail the
+ * resolution anyway and should be retried once the artifact got published.
+ * </p>
+ * Misses are appended to a <code>_resolver.missing</code> file in the local repository; expired
+ * entries get dropped when the file is read on startup and whenever the file grew to more than
+ * twice the entries still cached.
+ */
+public class MissingArtifactCache {
+
+    private static final String MISSING_FILE_NAME = "_resolver.missing";
+    // Lines the file may grow by before it gets compacted regardless of the cached entries
+    private static final int COMPACT_THRESHOLD = 100;
+
+    private final AtomicLong avoided = new AtomicLong();
+    private int lines;
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    private final File missingFile;
+    private final AtomicLong recorded = new AtomicLong();
+    private final long timeout;
+
+    public MissingArtifactCache(String repoLocation, long timeout) {
+        this.missingFile = new File(repoLocation, MISSING_FILE_NAME);
+        this.timeout = timeout;
+        if (timeout > 0) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the given repositories without the ones known not to have the given artifact.
+     */
+    public List<RemoteRepository> filter(Artifact artifact, List<RemoteRepository> repositories) {
+        if (timeout <= 0 || missing.isEmpty()) {
+            return repositories;
+        }
+        if (!isOptional(artifact)) {
+            return repositories;
+        }
+        List<RemoteRepository> filtered = repositories.stream()
+                .filter(r -> !isMissing(r, artifact)).collect(Collectors.toList());
+        if (filtered.size() == repositories.size()) {
+            return repositories;
+        }
+        avoided.addAndGet(repositories.size() - filtered.size());
+        return filtered;
+    }
+
+    /**
+     * Records the artifacts the given failed resolution didn't find in a remote repository.
+     */
+    public void record(ArtifactResolutionException e) {
+        if (timeout <= 0) {
+            return;
+        }
+        for (ArtifactResult result : e.getResults()) {
+            for (Exception exception : result.getExceptions()) {
+                if (exception instanceof ArtifactNotFoundException) {
+                    ArtifactNotFoundException notFound = (ArtifactNotFoundException) exception;
+                    if (notFound.getRepository() != null
+                            && isOptional(notFound.getArtifact())) {
+                        record(notFound.getRepository(), notFound.getArtifact());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of remote requests skipped because of a cached miss.
+     */
+    public long avoided() {
+        return avoided.get();
+    }
+
+    public long recorded() {
+        return recorded.get();
+    }
+
+    public int size() {
+        return missing.size();
+    }
+
+    private boolean isOptional(Artifact artifact) {
+        return artifact.getExtension().endsWith(".asc")
+                || ("metadata".equals(artifact.getClassifier())
+                        && "json".equals(artifact.getExtension()));
+    }
+
+    private boolean isMissing(RemoteRepository repository, Artifact artifact) {
+        String key = key(repository, artifact);
+        Long since = missing.get(key);
+        if (since == null) {
+            return false;
+        }
+        else if (System.currentTimeMillis() - since > timeout) {
+            missing.remove(key, since);
+            return false;
+        }
+        return true;
+    }
+
+    private String key(RemoteRepository repository, Artifact artifact) {
+        return repository.getId() + "#" + ArtifactIdUtils.toId(artifact);
+    }
+
+    private void load() {
+        if (!missingFile.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(missingFile)))) {
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                int index = line.lastIndexOf('#');
+                if (index > 0) {
+                    long since = Long.parseLong(line.substring(index + 1));
+                    if (now - since <= timeout) {
+                        missing.put(line.substring(0, index), since);
+                    }
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            // Fine, just move on without the cached misses
+        }
+        compact();
+    }
+
+    private synchronized void record(RemoteRepository repository, Artifact artifact) {
+        String key = key(repository, artifact);
+        long now = System.currentTimeMillis();
+        missing.put(key, now);
+        recorded.incrementAndGet();
+        if (++lines > 2 * missing.size() + COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+        missingFile.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(missingFile, true)) {
+            writer.write(key + "#" + now + "\n");
+        }
+        catch (IOException e) {
+            // Fine, the miss is still cached in memory
+        }
+    }
+
+    private synchronized void compact() {
+        long now = System.currentTimeMillis();
+        missing.values().removeIf(since -> now - since > timeout);
+        lines = missing.size();
+        missingFile.getParentFile().mkdirs();
+        File tempFile = new File(missingFile.getParentFile(), MISSING_FILE_NAME + ".tmp");
+        try {
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                for (Map.Entry<String, Long> entry : missing.entrySet()) {
+                    writer.write(entry.getKey() + "#" + entry.getValue() + "\n");
+                }
+            }
+            Files.move(tempFile.toPath(), missingFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            // Something went wrong, just delete the missing file
+            FileUtils.deleteQuietly(tempFile);
+            FileUtils.deleteQuietly(missingFile);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps string prefixes to values; lookups return the value of the longest prefix of the given
+ * string in time proportional to its length, independent of the number of prefixes.
+ */
+class PrefixTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Adds the given prefix unless it was added before; the first value for a prefix wins.
+     */
+    public void put(String prefix, V value) {
+        Node<V> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node<>());
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            node.value = value;
+        }
+    }
+
+    /**
+     * Returns the value of the longest added prefix of the given string; <code>null</code> if
+     * none of them matches.
+     */
+    public V find(String string) {
+        Node<V> node = root;
+        V value = (root.terminal ? root.value : null);
+        for (int i = 0; i < string.length(); i++) {
+            node = node.children.get(string.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.terminal) {
+                value = node.value;
+            }
+        }
+        return value;
+    }
+
+    private static class Node<V> {
+
+        private final Map<Character, Node<V>> children = new HashMap<>();
+        private boolean terminal;
+        private V value;
+    }
+}
@@ -0,0 +1,145 @@
+package com.atomist.rug.resolver.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Remembers which remote repository served the artifacts of a groupId, so that later lookups
+ * try that repository first instead of probing the repositories in configuration order.
+ * </p>
+ * Routes are appended to a <code>_resolver.routes</code> file in the local repository as they are
+ * learned or change; the last line of a groupId wins, and the file is compacted once it grew to
+ * more than twice the routes. Routes only survive restarts with a persistent
+ * <code>maven.repo-location</code>; the default one is a new temporary directory per process. A
+ * groupId without a route of its own uses the route of its longest dotted prefix that has one.
+ * </p>
+ * Routes order the repositories of artifact and descriptor reads only; version metadata is
+ * still merged from every repository.
+ */
+class RepositoryRoutes {
+
+    private static final String ROUTES_FILE_NAME = "_resolver.routes";
+    // Lines the file may grow by before it gets compacted regardless of the routes
+    private static final int COMPACT_THRESHOLD = 100;
+
+    private int lines;
+    private final Map<String, String> routes = new ConcurrentHashMap<>();
+    private final File routesFile;
+
+    public RepositoryRoutes(String repoLocation) {
+        this.routesFile = new File(repoLocation, ROUTES_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Records that the given repository served an artifact of the given groupId.
+     */
+    public void learn(String groupId, String repositoryId) {
+        if (!repositoryId.equals(routes.put(groupId, repositoryId))) {
+            append(groupId);
+        }
+    }
+
+    /**
+     * Returns the given repositories with the one routed to for the given groupId first.
+     */
+    public List<RemoteRepository> order(String groupId, List<RemoteRepository> repositories) {
+        Optional<String> route = route(groupId);
+        if (!route.isPresent() || repositories.size() < 2
+                || repositories.get(0).getId().equals(route.get())) {
+            return repositories;
+        }
+        List<RemoteRepository> ordered = new ArrayList<>(repositories.size());
+        repositories.stream().filter(r -> r.getId().equals(route.get())).forEach(ordered::add);
+        repositories.stream().filter(r -> !r.getId().equals(route.get())).forEach(ordered::add);
+        return ordered;
+    }
+
+    public Optional<String> route(String groupId) {
+        String prefix = groupId;
+        while (true) {
+            String repositoryId = routes.get(prefix);
+            if (repositoryId != null) {
+                return Optional.of(repositoryId);
+            }
+            int index = prefix.lastIndexOf('.');
+            if (index < 0) {
+                return Optional.empty();
+            }
+            prefix = prefix.substring(0, index);
+        }
+    }
+
+    private void load() {
+        if (!routesFile.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(routesFile)))) {
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("#");
+                if (parts.length == 2) {
+                    routes.put(parts[0], parts[1]);
+                    lines++;
+                }
+            }
+        }
+        catch (IOException e) {
+            // Fine, just move on without the learned routes
+        }
+        if (lines > routes.size()) {
+            compact();
+        }
+    }
+
+    // Appends the current route, which may have flipped again since it was learned
+    private synchronized void append(String groupId) {
+        if (++lines > 2 * routes.size() + COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+        routesFile.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(routesFile, true)) {
+            writer.write(groupId + "#" + routes.get(groupId) + "\n");
+        }
+        catch (IOException e) {
+            // Fine, the route is still used in memory
+        }
+    }
+
+    private synchronized void compact() {
+        lines = routes.size();
+        File tempFile = new File(routesFile.getParentFile(),
+                ROUTES_FILE_NAME + "." + Thread.currentThread().getId());
+        try {
+            routesFile.getParentFile().mkdirs();
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                for (Map.Entry<String, String> route : routes.entrySet()) {
+                    writer.write(route.getKey() + "#" + route.getValue() + "\n");
+                }
+            }
+            Files.move(tempFile.toPath(), routesFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            // Something went wrong, just delete the routes file
+            FileUtils.deleteQuietly(tempFile);
+            FileUtils.deleteQuietly(routesFile);
+        }
+    }
+}
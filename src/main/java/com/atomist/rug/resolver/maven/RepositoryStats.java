@@ -0,0 +1,100 @@
+package com.atomist.rug.resolver.maven;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies of the lookups against each remote repository, by repository id.
+ */
+public class RepositoryStats {
+
+    // Weight of the latest lookup in the recent latency
+    private static final double RECENT_WEIGHT = 0.2;
+
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    public void record(String repository, long millis, boolean found) {
+        latencies.computeIfAbsent(repository, r -> new Latency()).record(millis, found);
+    }
+
+    /**
+     * Records a lookup that got abandoned because another repository answered first. Its latency
+     * is unknown, so it is only counted and doesn't lower the mean of slow repositories.
+     */
+    public void recordCancelled(String repository) {
+        latencies.computeIfAbsent(repository, r -> new Latency()).recordCancelled();
+    }
+
+    /**
+     * Returns a snapshot of the latencies recorded so far, ordered by repository id.
+     */
+    public Map<String, Latency> latencies() {
+        Map<String, Latency> snapshot = new TreeMap<>();
+        latencies.forEach((repository, latency) -> snapshot.put(repository, latency.copy()));
+        return snapshot;
+    }
+
+    public static class Latency {
+
+        private long cancelled;
+        private long count;
+        private long max;
+        private long misses;
+        private double recent;
+        private long total;
+
+        public synchronized long getCancelled() {
+            return cancelled;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        public synchronized double getMean() {
+            return (count > 0 ? (double) total / count : 0);
+        }
+
+        public synchronized long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the exponentially weighted average latency, which follows changes in a
+         * repository's responsiveness faster than the mean.
+         */
+        public synchronized double getRecent() {
+            return recent;
+        }
+
+        private synchronized Latency copy() {
+            Latency copy = new Latency();
+            copy.cancelled = cancelled;
+            copy.count = count;
+            copy.max = max;
+            copy.misses = misses;
+            copy.recent = recent;
+            copy.total = total;
+            return copy;
+        }
+
+        private synchronized void record(long millis, boolean found) {
+            recent = (count == 0 ? millis : recent + RECENT_WEIGHT * (millis - recent));
+            count++;
+            total += millis;
+            max = Math.max(max, millis);
+            if (!found) {
+                misses++;
+            }
+        }
+
+        private synchronized void recordCancelled() {
+            cancelled++;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.concurrent.Subscriber;
+import com.atomist.rug.resolver.concurrent.Subscription;
+
+public class AsyncDependencyResolverTest {
+
+    @Test
+    public void testTreesAreInRequestedOrder() throws Exception {
+        StubResolver resolver = new StubResolver();
+        List<ArtifactDescriptor> trees = resolver
+                .resolveRugs(Arrays.asList(artifact("second", "1.0.0"), artifact("first", "1.0.0")))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("second,first",
+                trees.stream().map(ArtifactDescriptor::artifact).collect(Collectors.joining(",")));
+    }
+
+    @Test
+    public void testSameVersionsAreResolvedOnce() throws Exception {
+        StubResolver resolver = new StubResolver();
+        ArtifactDescriptor latest = artifact("rugs", "latest");
+        ArtifactDescriptor sameLatest = new DefaultArtifactDescriptor("com.atomist", "rugs",
+                "latest", Extension.JAR);
+        ArtifactDescriptor range = artifact("rugs", "[1.0.0,2.0.0)");
+
+        Map<ArtifactDescriptor, String> versions = resolver
+                .resolveVersions(Arrays.asList(range, latest, sameLatest))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(range, latest, sameLatest), new ArrayList<>(versions.keySet()));
+        assertEquals("1.0.1", versions.get(latest));
+        assertEquals("1.0.1", versions.get(sameLatest));
+        assertEquals(2, resolver.versions.get());
+    }
+
+    @Test
+    public void testDependenciesAreStreamedOnceResolved() throws Exception {
+        StubResolver resolver = new StubResolver();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        resolver.streamDependencies(artifact("rugs", "1.0.0"), subscriber);
+
+        assertEquals(0, subscriber.items.size());
+        subscriber.subscription.request(1);
+        assertEquals(0, subscriber.items.size());
+
+        resolver.dependencies.complete(Arrays.asList(artifact("a", "1.0.0"),
+                artifact("b", "1.0.0")));
+        assertEquals("a", subscriber.items.get(0).artifact());
+        assertNull(subscriber.result);
+
+        subscriber.subscription.request(1);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(2, subscriber.result.size());
+    }
+
+    @Test
+    public void testCancelledStreamsCancelTheResolution() throws Exception {
+        StubResolver resolver = new StubResolver();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        resolver.streamDependencies(artifact("rugs", "1.0.0"), subscriber);
+
+        subscriber.subscription.cancel();
+        assertTrue(resolver.dependencies.isCancelled());
+        assertNull(subscriber.error);
+    }
+
+    private ArtifactDescriptor artifact(String name, String version) {
+        return new DefaultArtifactDescriptor("com.atomist", name, version, Extension.ZIP);
+    }
+
+    private static class StubResolver implements AsyncDependencyResolver {
+
+        private final CompletableFuture<List<ArtifactDescriptor>> dependencies =
+                new CompletableFuture<>();
+        private final AtomicInteger versions = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(
+                ArtifactDescriptor artifact, DependencyVerifier... verifiers) {
+            return dependencies;
+        }
+
+        @Override
+        public CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact) {
+            return CompletableFuture.supplyAsync(() -> artifact);
+        }
+
+        @Override
+        public CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact) {
+            versions.incrementAndGet();
+            return CompletableFuture.completedFuture("1.0.1");
+        }
+    }
+
+    private static class RecordingSubscriber
+            implements Subscriber<ArtifactDescriptor, List<ArtifactDescriptor>> {
+
+        private Throwable error;
+        private final List<ArtifactDescriptor> items = new ArrayList<>();
+        private List<ArtifactDescriptor> result;
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ArtifactDescriptor item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete(List<ArtifactDescriptor> result) {
+            this.result = result;
+        }
+    }
+}
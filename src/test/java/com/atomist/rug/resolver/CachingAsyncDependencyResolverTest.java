@@ -0,0 +1,241 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+public class CachingAsyncDependencyResolverTest {
+
+    @Test
+    public void testTreesAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            ArtifactDescriptor artifact = artifact("test-rugs", "1.0.0");
+
+            new CachingAsyncDependencyResolver(delegate, repoHome.getPath()).resolveRugs(artifact)
+                    .get(5, TimeUnit.SECONDS);
+            // A new resolver reads the tree back from disk
+            ArtifactDescriptor tree = new CachingAsyncDependencyResolver(delegate,
+                    repoHome.getPath()).resolveRugs(artifact).get(5, TimeUnit.SECONDS);
+
+            assertEquals("test-rugs", tree.artifact());
+            assertEquals(1, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testOnlyArchivesWithoutPlanAreResolvedInOneBatch() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingAsyncDependencyResolver resolver = new CachingAsyncDependencyResolver(delegate,
+                    repoHome.getPath());
+            resolver.resolveRugs(artifact("second", "1.0.0")).get(5, TimeUnit.SECONDS);
+
+            List<ArtifactDescriptor> trees = resolver
+                    .resolveRugs(Arrays.asList(artifact("first", "1.0.0"),
+                            artifact("second", "1.0.0"), artifact("third", "1.0.0")))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertEquals("first,second,third", trees.stream().map(ArtifactDescriptor::artifact)
+                    .collect(Collectors.joining(",")));
+            assertEquals(1, delegate.batches.get());
+            assertEquals("first,third", delegate.batch);
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testOnlyChangedDependenciesOfLocalArchivesAreResolvedInBatches()
+            throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        File project = Files.createTempDirectory("project").toFile();
+        try {
+            File manifest = new File(project, ".atomist/manifest.yml");
+            FileUtils.write(manifest, "group: com.atomist", "UTF-8");
+
+            CountingResolver delegate = new CountingResolver(null);
+            CachingAsyncDependencyResolver resolver = new CachingAsyncDependencyResolver(delegate,
+                    repoHome.getPath());
+            resolver.resolveRugs(Arrays.asList(local(project, "first", "second"),
+                    artifact("other", "1.0.0"))).get(5, TimeUnit.SECONDS);
+            manifest.setLastModified(System.currentTimeMillis() + 10000);
+            List<ArtifactDescriptor> trees = resolver.resolveRugs(Arrays
+                    .asList(local(project, "first", "third"), artifact("other", "1.0.0")))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, delegate.batches.get());
+            assertEquals(3, delegate.calls.get());
+            assertEquals("third", names(delegate.requested));
+            assertEquals("first,third", names(trees.get(0)));
+            assertEquals("other", trees.get(1).artifact());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+            FileUtils.deleteQuietly(project);
+        }
+    }
+
+    @Test
+    public void testVersionRangesAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver("1.2.0");
+            ArtifactDescriptor artifact = artifact("test-rugs", "[1.0.0,2.0.0)");
+
+            assertEquals("1.2.0", new CachingAsyncDependencyResolver(delegate, repoHome.getPath())
+                    .resolveVersion(artifact).get(5, TimeUnit.SECONDS));
+            assertEquals("1.2.0", new CachingAsyncDependencyResolver(delegate, repoHome.getPath())
+                    .resolveVersion(artifact).get(5, TimeUnit.SECONDS));
+            assertEquals(1, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testFailedBatchLookupsAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingAsyncDependencyResolver resolver = new CachingAsyncDependencyResolver(delegate,
+                    repoHome.getPath());
+            List<ArtifactDescriptor> artifacts = Arrays.asList(artifact("first", "latest"),
+                    artifact("second", "[1.0.0,2.0.0)"));
+            for (int i = 0; i < 2; i++) {
+                try {
+                    resolver.resolveVersions(artifacts).get(5, TimeUnit.SECONDS);
+                    throw new AssertionError("Expected failure");
+                }
+                catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof DependencyResolverException);
+                }
+            }
+            // The failed batch and the lookups finding out which ranges failed
+            assertEquals(4, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testFailedLookupsAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingAsyncDependencyResolver resolver = new CachingAsyncDependencyResolver(delegate,
+                    repoHome.getPath());
+            for (int i = 0; i < 2; i++) {
+                try {
+                    resolver.resolveVersion(artifact("test-rugs", "latest")).get(5,
+                            TimeUnit.SECONDS);
+                    throw new AssertionError("Expected failure");
+                }
+                catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof DependencyResolverException);
+                }
+            }
+            assertEquals(1, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    private ArtifactDescriptor local(File project, String... dependencies) {
+        LocalArtifactDescriptor artifact = new LocalArtifactDescriptor("com.atomist",
+                "test-rugs", "1.0.0", Extension.ZIP, Scope.COMPILE, project.getPath());
+        for (String dependency : dependencies) {
+            artifact.addDependency(new DefaultArtifactDescriptor("com.atomist", dependency,
+                    "1.0.0", Extension.ZIP));
+        }
+        return artifact;
+    }
+
+    private String names(ArtifactDescriptor artifact) {
+        return artifact.dependencies().stream().map(ArtifactDescriptor::artifact)
+                .collect(Collectors.joining(","));
+    }
+
+    private ArtifactDescriptor artifact(String name, String version) {
+        return new DefaultArtifactDescriptor("com.atomist", name, version, Extension.ZIP,
+                Scope.COMPILE, null);
+    }
+
+    private static class CountingResolver implements AsyncDependencyResolver {
+
+        private String batch;
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger calls = new AtomicInteger();
+        private ArtifactDescriptor requested;
+        private final String version;
+
+        public CountingResolver(String version) {
+            this.version = version;
+        }
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(
+                ArtifactDescriptor artifact, DependencyVerifier... verifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact) {
+            calls.incrementAndGet();
+            requested = artifact;
+            DefaultArtifactDescriptor tree = new DefaultArtifactDescriptor(artifact.group(),
+                    artifact.artifact(), artifact.version(), artifact.extension());
+            new ArrayList<>(artifact.dependencies()).forEach(tree::addDependency);
+            return CompletableFuture.completedFuture(tree);
+        }
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveRugs(
+                Collection<ArtifactDescriptor> artifacts) {
+            batches.incrementAndGet();
+            batch = artifacts.stream().map(ArtifactDescriptor::artifact)
+                    .collect(Collectors.joining(","));
+            return AsyncDependencyResolver.super.resolveRugs(artifacts);
+        }
+
+        @Override
+        public CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact) {
+            calls.incrementAndGet();
+            CompletableFuture<String> result = new CompletableFuture<>();
+            if (version == null) {
+                result.completeExceptionally(
+                        new DependencyResolverException("Unable to find a version"));
+            }
+            else {
+                result.complete(version);
+            }
+            return result;
+        }
+    }
+}
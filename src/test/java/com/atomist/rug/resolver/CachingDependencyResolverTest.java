@@ -0,0 +1,270 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+public class CachingDependencyResolverTest {
+
+    @Test
+    public void testVersionRangesAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver("1.2.0");
+            ArtifactDescriptor artifact = artifact("[1.0.0,2.0.0)");
+
+            assertEquals("1.2.0", new CachingDependencyResolver(delegate, repoHome.getPath())
+                    .resolveVersion(artifact));
+            // A new resolver reads the version back from disk
+            assertEquals("1.2.0", new CachingDependencyResolver(delegate, repoHome.getPath())
+                    .resolveVersion(artifact));
+            assertEquals(1, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testFailedLookupsAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath());
+            for (int i = 0; i < 2; i++) {
+                try {
+                    resolver.resolveVersion(artifact("latest"));
+                    throw new AssertionError("Expected failure");
+                }
+                catch (DependencyResolverException e) {
+                    // expected
+                }
+            }
+            assertEquals(1, delegate.calls.get());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testFailedBatchLookupsAreCached() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath());
+            List<ArtifactDescriptor> artifacts = Arrays.asList(artifact("latest"),
+                    artifact("[1.0.0,2.0.0)"));
+            List<DependencyResolverException> failures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                try {
+                    resolver.resolveVersions(artifacts);
+                    throw new AssertionError("Expected failure");
+                }
+                catch (DependencyResolverException e) {
+                    failures.add(e);
+                }
+            }
+            // The failed batch and the lookup finding out which range failed
+            assertEquals(2, delegate.calls.get());
+            // Every caller gets its own exception
+            assertNotSame(failures.get(1), failures.get(2));
+            assertSame(failures.get(1).getCause(), failures.get(2).getCause());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testOnlyChangedDependenciesOfLocalArchivesAreResolved() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        File project = Files.createTempDirectory("project").toFile();
+        try {
+            File manifest = new File(project, ".atomist/manifest.yml");
+            FileUtils.write(manifest, "group: com.atomist", "UTF-8");
+
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath());
+            resolver.resolveRugs(local(project, "first", "second"));
+            manifest.setLastModified(System.currentTimeMillis() + 10000);
+            ArtifactDescriptor tree = resolver.resolveRugs(local(project, "first", "third"));
+
+            assertEquals(2, delegate.calls.get());
+            assertEquals("third", names(delegate.requested));
+            assertEquals("first,third", names(tree));
+        }
+        finally {
+            FileUtils.deleteQuietly(repoHome);
+            FileUtils.deleteQuietly(project);
+        }
+    }
+
+    @Test
+    public void testExpiredPlansAreServedWhileRefreshing() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath(), executor);
+            ArtifactDescriptor artifact = artifact("1.0.0");
+            resolver.resolveRugs(artifact);
+
+            File plan = new File(repoHome, "com/atomist/test-rugs/1.0.0/_resolver.tree");
+            long expired = System.currentTimeMillis() - 1000 * 60 * 60 * 3;
+            plan.setLastModified(expired);
+            assertEquals("test-rugs", resolver.resolveRugs(artifact).artifact());
+
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            assertEquals(2, delegate.calls.get());
+            assertTrue(plan.lastModified() > expired);
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testExpiredPlansAreKeptIfTheRefreshFails() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath(), executor);
+            ArtifactDescriptor artifact = artifact("1.0.0");
+            resolver.resolveRugs(artifact);
+
+            File plan = new File(repoHome, "com/atomist/test-rugs/1.0.0/_resolver.tree");
+            plan.setLastModified(System.currentTimeMillis() - 1000 * 60 * 60 * 3);
+            delegate.failing = true;
+            for (int i = 0; i < 2; i++) {
+                assertEquals("test-rugs", resolver.resolveRugs(artifact).artifact());
+                // Wait for the refresh to fail
+                executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+            }
+
+            // Every caller after a failed refresh triggers another attempt
+            assertEquals(3, delegate.calls.get());
+            assertTrue(plan.exists());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    @Test
+    public void testPlansPastTheMaximumStalenessAreResolvedAgain() throws Exception {
+        File repoHome = Files.createTempDirectory("resolver").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountingResolver delegate = new CountingResolver(null);
+            CachingDependencyResolver resolver = new CachingDependencyResolver(delegate,
+                    repoHome.getPath(), executor);
+            ArtifactDescriptor artifact = artifact("1.0.0");
+            resolver.resolveRugs(artifact);
+
+            File plan = new File(repoHome, "com/atomist/test-rugs/1.0.0/_resolver.tree");
+            plan.setLastModified(
+                    System.currentTimeMillis() - PlanRefresher.MAX_STALENESS - 1000 * 60);
+            delegate.failing = true;
+            try {
+                resolver.resolveRugs(artifact);
+                throw new AssertionError("Expected failure");
+            }
+            catch (DependencyResolverException e) {
+                // expected
+            }
+            assertEquals(2, delegate.calls.get());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(repoHome);
+        }
+    }
+
+    private ArtifactDescriptor local(File project, String... dependencies) {
+        LocalArtifactDescriptor artifact = new LocalArtifactDescriptor("com.atomist",
+                "test-rugs", "1.0.0", Extension.ZIP, Scope.COMPILE, project.getPath());
+        for (String dependency : dependencies) {
+            artifact.addDependency(new DefaultArtifactDescriptor("com.atomist", dependency,
+                    "1.0.0", Extension.ZIP));
+        }
+        return artifact;
+    }
+
+    private String names(ArtifactDescriptor artifact) {
+        return artifact.dependencies().stream().map(ArtifactDescriptor::artifact)
+                .collect(Collectors.joining(","));
+    }
+
+    private ArtifactDescriptor artifact(String version) {
+        return new DefaultArtifactDescriptor("com.atomist", "test-rugs", version, Extension.ZIP,
+                Scope.COMPILE, null);
+    }
+
+    private static class CountingResolver implements DependencyResolver {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean failing;
+        private ArtifactDescriptor requested;
+        private final String version;
+
+        public CountingResolver(String version) {
+            this.version = version;
+        }
+
+        @Override
+        public List<ArtifactDescriptor> resolveDependencies(ArtifactDescriptor artifact,
+                DependencyVerifier... verifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ArtifactDescriptor resolveRugs(ArtifactDescriptor artifact) {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new DependencyResolverException("Repository unavailable");
+            }
+            requested = artifact;
+            DefaultArtifactDescriptor tree = new DefaultArtifactDescriptor(artifact.group(),
+                    artifact.artifact(), artifact.version(), artifact.extension());
+            new ArrayList<>(artifact.dependencies()).forEach(tree::addDependency);
+            return tree;
+        }
+
+        @Override
+        public String resolveVersion(ArtifactDescriptor artifact) {
+            calls.incrementAndGet();
+            if (version == null) {
+                throw new DependencyResolverException("Unable to find a version");
+            }
+            return version;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+public class CompactDependencyGraphTest {
+
+    @Test
+    public void testSharedNodesAreStoredOnce() {
+        ArtifactDescriptor scala = descriptor("scala-library", Extension.JAR);
+        ArtifactDescriptor rug = descriptor("rug", Extension.JAR, scala);
+        ArtifactDescriptor archive = descriptor("common-rugs", Extension.ZIP, rug, scala);
+
+        CompactDependencyGraph graph = CompactDependencyGraph.of(archive);
+        assertEquals(3, graph.size());
+        assertEquals(3, graph.edges());
+
+        int root = graph.roots()[0];
+        assertEquals("common-rugs", graph.artifact(root));
+        assertEquals(Extension.ZIP, graph.extension(root));
+        assertEquals(Scope.COMPILE, graph.scope(root));
+        assertNull(graph.classifier(root));
+        assertEquals(0, graph.parentCount(root));
+
+        int shared = graph.child(root, 1);
+        assertEquals("scala-library", graph.artifact(shared));
+        assertEquals("/repo/scala-library.jar", graph.uri(shared));
+        assertEquals(2, graph.parentCount(shared));
+        assertArrayEquals(new int[] { graph.child(root, 0), root }, graph.parents(shared));
+    }
+
+    @Test
+    public void testIdsAreInTopologicalOrder() {
+        ArtifactDescriptor scala = descriptor("scala-library", Extension.JAR);
+        ArtifactDescriptor rug = descriptor("rug", Extension.JAR, scala);
+        List<ArtifactDescriptor> archives = Arrays.asList(
+                descriptor("common-rugs", Extension.ZIP, rug, scala),
+                descriptor("travis-rugs", Extension.ZIP, rug));
+
+        CompactDependencyGraph graph = CompactDependencyGraph.of(archives);
+        assertEquals(4, graph.size());
+        for (int node = 0; node < graph.size(); node++) {
+            for (int child : graph.children(node)) {
+                assertTrue(child < node);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripKeepsTrees() {
+        ArtifactDescriptor scala = descriptor("scala-library", Extension.JAR);
+        ArtifactDescriptor rug = descriptor("rug", Extension.JAR, scala);
+        List<ArtifactDescriptor> archives = Arrays.asList(
+                descriptor("common-rugs", Extension.ZIP, rug, scala),
+                descriptor("travis-rugs", Extension.ZIP, rug));
+
+        CompactDependencyGraph graph = CompactDependencyGraph.of(archives);
+        List<ArtifactDescriptor> trees = graph.toArtifactDescriptors();
+        // Hash-consed descriptors come back as the very same instances
+        assertSame(archives.get(0), trees.get(0));
+        assertSame(archives.get(1), trees.get(1));
+        assertSame(rug, graph.toArtifactDescriptor(graph.child(graph.roots()[1], 0)));
+    }
+
+    private ArtifactDescriptor descriptor(String artifact, Extension extension,
+            ArtifactDescriptor... dependencies) {
+        return ImmutableArtifactDescriptor.of("com.atomist", artifact, "1.0.0", extension,
+                Scope.COMPILE, "/repo/" + artifact + "." + extension.toString().toLowerCase(),
+                Arrays.asList(dependencies));
+    }
+}
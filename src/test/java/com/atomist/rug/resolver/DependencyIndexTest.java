@@ -0,0 +1,67 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+public class DependencyIndexTest {
+
+    private final ArtifactDescriptor scala = descriptor("org.scala-lang", "scala-library",
+            Extension.JAR, Scope.RUNTIME);
+    private final ArtifactDescriptor rug = descriptor("com.atomist", "rug", Extension.JAR,
+            Scope.COMPILE, scala);
+    private final ArtifactDescriptor metadata = descriptor("com.atomist", "common-rugs",
+            Extension.JSON, Scope.COMPILE);
+    private final ArtifactDescriptor archive = descriptor("com.atomist", "common-rugs",
+            Extension.ZIP, Scope.COMPILE, rug, metadata, scala);
+
+    @Test
+    public void testLookupsByCoordinatesExtensionAndScope() {
+        DependencyIndex index = DependencyIndex.of(archive);
+
+        assertEquals(4, index.size());
+        assertSame(metadata,
+                index.find("com.atomist", "common-rugs", "1.0.0", Extension.JSON).get());
+        assertFalse(index.find("com.atomist", "common-rugs", "2.0.0", Extension.JSON)
+                .isPresent());
+        assertEquals(Arrays.asList(archive, metadata),
+                index.findAll("com.atomist", "common-rugs"));
+        assertEquals(Arrays.asList(rug, scala), index.findAll(Extension.JAR));
+        assertEquals(Collections.singletonList(scala), index.findAll(Scope.RUNTIME));
+        assertTrue(index.findAll(Scope.TEST).isEmpty());
+    }
+
+    @Test
+    public void testAncestorPaths() {
+        DependencyIndex index = DependencyIndex.of(archive);
+
+        // scala-library is a direct dependency of the archive as well as one of rug
+        assertEquals(Arrays.asList(archive, scala), index.pathTo(scala));
+        assertEquals(Arrays.asList(archive, rug),
+                Arrays.asList(index.ancestors(scala).toArray()));
+        assertEquals(Collections.singletonList(archive), index.pathTo(archive));
+        assertTrue(index.ancestors(archive).isEmpty());
+        assertTrue(index.pathTo(descriptor("com.atomist", "other", Extension.JAR,
+                Scope.COMPILE)).isEmpty());
+    }
+
+    @Test
+    public void testImmutableTreesCarryTheirIndex() {
+        assertSame(DependencyIndex.of(archive), DependencyIndex.of(archive));
+    }
+
+    private static ArtifactDescriptor descriptor(String group, String artifact,
+            Extension extension, Scope scope, ArtifactDescriptor... dependencies) {
+        return ImmutableArtifactDescriptor.of(group, artifact, "1.0.0", extension, scope,
+                null, Arrays.asList(dependencies));
+    }
+}
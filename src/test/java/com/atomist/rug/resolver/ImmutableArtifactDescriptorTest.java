@@ -0,0 +1,105 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+
+public class ImmutableArtifactDescriptorTest {
+
+    @Test
+    public void testIdenticalTreesAreTheSameInstance() {
+        ArtifactDescriptor first = rug(descriptor("scala-library", Scope.COMPILE));
+        ArtifactDescriptor second = rug(descriptor("scala-library", Scope.COMPILE));
+
+        assertSame(first, second);
+        assertSame(first.dependencies().get(0), second.dependencies().get(0));
+        assertSame(first.group(), new String("com.atomist").intern());
+    }
+
+    @Test
+    public void testDifferentScopesAreNotShared() {
+        ArtifactDescriptor compile = descriptor("rug", Scope.COMPILE);
+        ArtifactDescriptor provided = descriptor("rug", Scope.PROVIDED);
+
+        assertNotSame(compile, provided);
+        assertFalse(compile.equals(provided));
+    }
+
+    @Test
+    public void testDifferentDependenciesAreNotShared() {
+        ArtifactDescriptor withDependency = rug(descriptor("scala-library", Scope.COMPILE));
+        ArtifactDescriptor withoutDependency = descriptor("rug", Scope.COMPILE);
+
+        assertNotSame(withDependency, withoutDependency);
+        Set<ArtifactDescriptor> set = new HashSet<>(
+                Arrays.asList(withDependency, withoutDependency, descriptor("rug", Scope.COMPILE)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testCopyKeepsSharedSubtreesShared() {
+        DefaultArtifactDescriptor scala = new DefaultArtifactDescriptor("org.scala-lang",
+                "scala-library", "2.11.8", Extension.JAR);
+        DefaultArtifactDescriptor rug = new DefaultArtifactDescriptor("com.atomist", "rug",
+                "1.0.0", Extension.JAR);
+        rug.addDependency(scala);
+        DefaultArtifactDescriptor archive = new DefaultArtifactDescriptor("com.atomist",
+                "common-rugs", "1.0.0", Extension.ZIP);
+        archive.addDependency(rug);
+        archive.addDependency(scala);
+
+        ArtifactDescriptor copy = ImmutableArtifactDescriptor.copyOf(archive);
+        assertSame(copy.dependencies().get(1), copy.dependencies().get(0).dependencies().get(0));
+        assertSame(copy, ImmutableArtifactDescriptor.copyOf(archive));
+
+        DefaultArtifactDescriptor mutable = ArtifactDescriptorFactory.toDefault(copy);
+        assertSame(mutable.dependencies().get(1),
+                mutable.dependencies().get(0).dependencies().get(0));
+        assertSame(copy, ImmutableArtifactDescriptor.copyOf(mutable));
+    }
+
+    @Test
+    public void testConcurrentlyBuiltTreesAreTheSameInstance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ArtifactDescriptor>> trees = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                trees.add(executor.submit(() -> rug(descriptor("concurrent", Scope.COMPILE))));
+            }
+            ArtifactDescriptor first = trees.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<ArtifactDescriptor> tree : trees) {
+                assertSame(first, tree.get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ArtifactDescriptor rug(ArtifactDescriptor dependency) {
+        return ImmutableArtifactDescriptor.of("com.atomist", "rug", "1.0.0", Extension.JAR,
+                Scope.COMPILE, "/repo/rug.jar", Collections.singletonList(dependency));
+    }
+
+    private ArtifactDescriptor descriptor(String artifact, Scope scope) {
+        return ImmutableArtifactDescriptor.of("com.atomist", artifact, "1.0.0", Extension.JAR,
+                scope, "/repo/" + artifact + ".jar", Collections.emptyList());
+    }
+}
@@ -0,0 +1,75 @@
+package com.atomist.rug.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PlanRefresherTest {
+
+    @Test
+    public void testRefreshesOfOnePlanAreCoalesced() {
+        PlanRefresher refresher = new PlanRefresher(Runnable::run);
+        File plan = new File("_resolver.tree");
+        AtomicInteger refreshes = new AtomicInteger();
+        CompletableFuture<Void> running = new CompletableFuture<>();
+
+        refresher.refresh(plan, () -> {
+            refreshes.incrementAndGet();
+            return running;
+        });
+        refresher.refresh(plan, () -> {
+            refreshes.incrementAndGet();
+            return running;
+        });
+        // Other plans refresh independently
+        refresher.refresh(new File("_resolver.plan"), () -> {
+            refreshes.incrementAndGet();
+            return running;
+        });
+        assertEquals(2, refreshes.get());
+
+        running.complete(null);
+        refresher.refresh(plan, () -> {
+            refreshes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        assertEquals(3, refreshes.get());
+    }
+
+    @Test
+    public void testPlansAreOnlyServedUpToTheMaximumStaleness() throws Exception {
+        PlanRefresher refresher = new PlanRefresher(Runnable::run, 1000 * 60);
+        File plan = File.createTempFile("_resolver", ".tree");
+        try {
+            assertTrue(refresher.isServable(plan));
+            plan.setLastModified(System.currentTimeMillis() - 1000 * 60 * 2);
+            assertFalse(refresher.isServable(plan));
+        }
+        finally {
+            plan.delete();
+        }
+    }
+
+    @Test
+    public void testFailedRefreshesCanBeRetried() {
+        PlanRefresher refresher = new PlanRefresher(Runnable::run);
+        File plan = new File("_resolver.tree");
+        AtomicInteger refreshes = new AtomicInteger();
+
+        refresher.refresh(plan, () -> {
+            refreshes.incrementAndGet();
+            throw new DependencyResolverException("Repository unavailable");
+        });
+        refresher.refresh(plan, () -> {
+            refreshes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        assertEquals(2, refreshes.get());
+    }
+}
@@ -0,0 +1,77 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testCallersOverTheLimitAreQueued() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 10);
+        CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> second = limiter.acquire();
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, limiter.getQueueDepth());
+
+        first.get().onIgnore();
+        assertTrue(second.isDone());
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCancelledCallersGiveUpTheirPlace() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 10);
+        CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquire();
+        limiter.acquire().cancel(false);
+
+        first.get().onIgnore();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitAdaptsToErrorsAndSuccesses() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        limiter.acquire().get().onDropped();
+        assertEquals(6, limiter.getLimit());
+
+        // Growth needs callers using at least half of the limit
+        for (int i = 0; i < 50; i++) {
+            List<CompletableFuture<AdaptiveLimiter.Permit>> permits = new ArrayList<>();
+            for (int j = 0; j < 5; j++) {
+                permits.add(limiter.acquire());
+            }
+            for (CompletableFuture<AdaptiveLimiter.Permit> permit : permits) {
+                permit.get().onSuccess();
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testBurstsOfFailuresShrinkTheLimitOnce() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        List<CompletableFuture<AdaptiveLimiter.Permit>> permits = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            permits.add(limiter.acquire());
+        }
+        CompletableFuture<AdaptiveLimiter.Permit> queued = limiter.acquire();
+        for (CompletableFuture<AdaptiveLimiter.Permit> permit : permits) {
+            permit.get().onDropped();
+        }
+        assertEquals(6, limiter.getLimit());
+
+        // Operations started after the decrease see the reduced limit and may shrink it again
+        queued.get().onDropped();
+        assertEquals(4, limiter.getLimit());
+    }
+}
@@ -0,0 +1,140 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class BufferedSubscriptionTest {
+
+    @Test
+    public void testItemsAreDeliveredAsRequested() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        BufferedSubscription<String, List<String>> subscription = new BufferedSubscription<>(
+                subscriber);
+        subscriber.onSubscribe(subscription);
+
+        subscription.offer("a");
+        subscription.offer("b");
+        subscription.offer("c");
+        subscription.complete(Arrays.asList("a", "b", "c"));
+        assertEquals(0, subscriber.items.size());
+
+        subscription.request(2);
+        assertEquals(Arrays.asList("a", "b"), subscriber.items);
+        assertNull(subscriber.result);
+
+        // Completion is only signalled after the last buffered item
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.items);
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.result);
+    }
+
+    @Test
+    public void testErrorsDropBufferedItems() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        BufferedSubscription<String, List<String>> subscription = new BufferedSubscription<>(
+                subscriber);
+
+        subscription.offer("a");
+        subscription.error(new IllegalStateException());
+        subscription.request(1);
+        assertEquals(0, subscriber.items.size());
+        assertTrue(subscriber.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCancellationRunsCallbacks() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        BufferedSubscription<String, List<String>> subscription = new BufferedSubscription<>(
+                subscriber);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        subscription.onCancel(() -> cancelled.set(true));
+
+        subscription.request(1);
+        subscription.cancel();
+        subscription.offer("a");
+        subscription.complete(Arrays.asList("a"));
+        assertTrue(cancelled.get());
+        assertEquals(0, subscriber.items.size());
+        assertNull(subscriber.result);
+
+        // Callbacks registered after cancellation run right away
+        AtomicBoolean late = new AtomicBoolean();
+        subscription.onCancel(() -> late.set(true));
+        assertTrue(late.get());
+    }
+
+    @Test
+    public void testFailingSubscribersAreCancelled() {
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+
+            @Override
+            public void onNext(String item) {
+                if ("b".equals(item)) {
+                    throw new IllegalStateException(item);
+                }
+                super.onNext(item);
+            }
+        };
+        BufferedSubscription<String, List<String>> subscription = new BufferedSubscription<>(
+                subscriber);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        subscription.onCancel(() -> cancelled.set(true));
+
+        subscription.request(Long.MAX_VALUE);
+        subscription.offer("a");
+        // The producer doesn't see the exception
+        subscription.offer("b");
+        subscription.offer("c");
+        subscription.complete(Arrays.asList("a", "b", "c"));
+
+        assertEquals(Arrays.asList("a"), subscriber.items);
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertTrue(cancelled.get());
+        assertNull(subscriber.result);
+    }
+
+    @Test
+    public void testNonPositiveRequestsFail() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        BufferedSubscription<String, List<String>> subscription = new BufferedSubscription<>(
+                subscriber);
+
+        subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    private static class RecordingSubscriber implements Subscriber<String, List<String>> {
+
+        private Throwable error;
+        private final List<String> items = new ArrayList<>();
+        private List<String> result;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            // no op
+        }
+
+        @Override
+        public void onNext(String item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete(List<String> result) {
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CancellationTest {
+
+    @Test
+    public void testChildrenAreCancelledWithTheirParent() {
+        Cancellation parent = new Cancellation();
+        Cancellation first = parent.child();
+        Cancellation second = parent.child();
+
+        // Children can be cancelled on their own
+        first.cancel();
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+        assertFalse(parent.isCancelled());
+
+        parent.cancel();
+        assertTrue(second.isCancelled());
+        assertTrue(parent.child().isCancelled());
+    }
+
+    @Test
+    public void testFuturesRegisteredAfterCancelAreCancelled() {
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<String> before = cancellation.register(new CompletableFuture<>());
+        cancellation.cancel();
+        CompletableFuture<String> after = cancellation.register(new CompletableFuture<>());
+
+        assertTrue(before.isCancelled());
+        assertTrue(after.isCancelled());
+    }
+
+    @Test
+    public void testCompletedFuturesAreReleased() {
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<String> running = cancellation.register(new CompletableFuture<>());
+        for (int i = 0; i < 1000; i++) {
+            cancellation.register(new CompletableFuture<>()).complete("done");
+        }
+        cancellation.register(CompletableFuture.completedFuture("done"));
+        assertEquals(1, cancellation.pending());
+
+        cancellation.cancel();
+        assertTrue(running.isCancelled());
+        assertEquals(0, cancellation.pending());
+    }
+
+    @Test
+    public void testQueuedTasksDontRunOnceCancelled() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AtomicInteger runs = new AtomicInteger();
+            Cancellation cancellation = new Cancellation();
+            CompletableFuture<Integer> task = cancellation
+                    .supplyAsync(runs::incrementAndGet, executor);
+
+            cancellation.cancel();
+            latch.countDown();
+
+            assertTrue(task.isCancelled());
+            // The next task only runs after the cancelled one was dequeued
+            executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+            assertEquals(0, runs.get());
+        }
+        finally {
+            latch.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRunningTasksAreInterruptedButTheirThreadsAreNot() throws Exception {
+        Cancellation cancellation = new Cancellation();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        // Run the task on this thread, which no pool clears the interrupt of afterwards
+        cancellation.supplyAsync(() -> {
+            cancellation.cancel();
+            interrupted.set(Thread.currentThread().isInterrupted());
+            return true;
+        }, Runnable::run);
+
+        assertTrue(interrupted.get());
+        assertFalse(Thread.interrupted());
+    }
+}
@@ -0,0 +1,92 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+import org.slf4j.MDC;
+
+public class ExecutorStrategiesTest {
+
+    @Test
+    public void testFixedPoolPropagatesMdc() throws Exception {
+        assertPropagatesMdc(ExecutorStrategies.forName("fixed"));
+    }
+
+    @Test
+    public void testWorkStealingPoolPropagatesMdc() throws Exception {
+        assertPropagatesMdc(ExecutorStrategies.forName("work-stealing"));
+    }
+
+    @Test
+    public void testVirtualThreadsPropagateMdc() throws Exception {
+        // Falls back to the fixed pool on JDKs without virtual threads
+        assertPropagatesMdc(ExecutorStrategies.forName("virtual"));
+    }
+
+    @Test
+    public void testStrategyByClassName() throws Exception {
+        assertPropagatesMdc(ExecutorStrategies.forName(Fixed.class.getName()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStrategy() {
+        ExecutorStrategies.forName("unknown");
+    }
+
+    @Test
+    public void testFailingStrategyConstructorsAreReported() {
+        try {
+            ExecutorStrategies.forName(Failing.class.getName());
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(Failing.class.getName()));
+            return;
+        }
+        throw new AssertionError("Expected the strategy to fail");
+    }
+
+    private void assertPropagatesMdc(ExecutorStrategy strategy) throws Exception {
+        ExecutorService executor = strategy.newExecutor("test-pool", 2);
+        try {
+            MDC.put("request", "42");
+            CompletableFuture<String> request = CompletableFuture
+                    .supplyAsync(() -> MDC.get("request"), executor);
+            assertEquals("42", request.get());
+
+            MDC.clear();
+            CompletableFuture<String> cleared = CompletableFuture
+                    .supplyAsync(() -> MDC.get("request"), executor);
+            assertNull(cleared.get());
+        }
+        finally {
+            MDC.clear();
+            executor.shutdown();
+        }
+        assertTrue(executor.isShutdown());
+    }
+
+    public static class Failing implements ExecutorStrategy {
+
+        public Failing() throws Exception {
+            throw new Exception("Unable to start");
+        }
+
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static class Fixed implements ExecutorStrategy {
+
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            return ExecutorStrategies.FIXED.newExecutor(name, threads);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class FuturesTest {
+
+    @Test
+    public void testResultsAreInOrder() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<List<String>> all = Futures.allOfFailFast(Arrays.asList(first, second));
+
+        second.complete("second");
+        first.complete("first");
+
+        assertEquals(Arrays.asList("first", "second"), all.get());
+    }
+
+    @Test
+    public void testFirstFailureCancelsRemainingFutures() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<List<String>> all = Futures.allOfFailFast(Arrays.asList(first, second));
+
+        IllegalStateException failure = new IllegalStateException();
+        second.completeExceptionally(failure);
+
+        assertTrue(first.isCancelled());
+        try {
+            all.get();
+        }
+        catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            return;
+        }
+        throw new AssertionError("Expected failure");
+    }
+
+    @Test
+    public void testFirstSuccessWinsAndCancelsTheRest() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> third = new CompletableFuture<>();
+        CompletableFuture<String> any = Futures
+                .anyOfSuccessful(Arrays.asList(first, second, third));
+
+        // Whoever gets the result can rely on the others being cancelled
+        CompletableFuture<Boolean> cancelled = any.thenApply(v -> third.isCancelled());
+
+        first.completeExceptionally(new IllegalStateException());
+        assertFalse(any.isDone());
+        second.complete("second");
+
+        assertEquals("second", any.get());
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    public void testAllFailuresFailTheFirstSuccess() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> any = Futures.anyOfSuccessful(Arrays.asList(first, second));
+
+        IllegalStateException failure = new IllegalStateException();
+        first.completeExceptionally(new IllegalStateException());
+        second.completeExceptionally(failure);
+
+        try {
+            any.get();
+        }
+        catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            return;
+        }
+        throw new AssertionError("Expected failure");
+    }
+}
@@ -0,0 +1,84 @@
+package com.atomist.rug.resolver.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneComputation() throws Exception {
+        SingleFlight<String, Object> inFlight = new SingleFlight<>();
+        AtomicInteger computations = new AtomicInteger();
+        CompletableFuture<Object> work = new CompletableFuture<>();
+        Object result = new Object();
+
+        CompletableFuture<Object> first = inFlight.submit("key", () -> {
+            computations.incrementAndGet();
+            return work;
+        });
+        CompletableFuture<Object> second = inFlight.submit("key", () -> {
+            computations.incrementAndGet();
+            return CompletableFuture.completedFuture(new Object());
+        });
+        assertFalse(second.isDone());
+        work.complete(result);
+
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+        assertEquals(0, inFlight.size());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        SingleFlight<String, Object> inFlight = new SingleFlight<>();
+        IllegalArgumentException failure = new IllegalArgumentException();
+        try {
+            inFlight.submit("key", () -> {
+                throw failure;
+            }).get(5, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            assertEquals(0, inFlight.size());
+            return;
+        }
+        throw new AssertionError("Expected failure");
+    }
+
+    @Test
+    public void testCallersAfterCompletionStartANewComputation() throws Exception {
+        SingleFlight<String, Object> inFlight = new SingleFlight<>();
+        AtomicInteger computations = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            inFlight.submit("key", () -> CompletableFuture
+                    .completedFuture(computations.incrementAndGet())).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    public void testSubmissionIsCancelledOnceAllCallersAbandonedIt() throws Exception {
+        SingleFlight<String, Object> inFlight = new SingleFlight<>();
+        CompletableFuture<Object> work = new CompletableFuture<>();
+
+        CompletableFuture<Object> first = inFlight.submit("key", () -> work);
+        CompletableFuture<Object> second = inFlight.submit("key", () -> new CompletableFuture<>());
+
+        first.cancel(false);
+        assertFalse(work.isCancelled());
+        second.cancel(false);
+        assertTrue(work.isCancelled());
+        assertEquals(0, inFlight.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.junit.Test;
+
+public class ArtifactDescriptorCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        ArtifactDescriptorCache cache = new ArtifactDescriptorCache(100, 0);
+        ArtifactDescriptorRequest request = request("com.atomist:rug:jar:1.0.0");
+        ArtifactDescriptorResult result = new ArtifactDescriptorResult(request);
+
+        assertNull(cache.get(request));
+        cache.put(request, result);
+        assertSame(result, cache.get(request("com.atomist:rug:jar:1.0.0")));
+
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        ArtifactDescriptorCache cache = new ArtifactDescriptorCache(4, 0);
+        ArtifactDescriptorRequest first = request("com.atomist:first:jar:1.0.0");
+        ArtifactDescriptorRequest second = request("com.atomist:second:jar:1.0.0");
+
+        ArtifactDescriptorResult result = new ArtifactDescriptorResult(first);
+        result.addDependency(new Dependency(new DefaultArtifact("com.atomist:a:1.0.0"), "compile"));
+        cache.put(first, result);
+        assertEquals(2, cache.weight());
+
+        result = new ArtifactDescriptorResult(second);
+        result.addDependency(new Dependency(new DefaultArtifact("com.atomist:b:1.0.0"), "compile"));
+        cache.put(second, result);
+        cache.get(first);
+        cache.put(request("com.atomist:third:jar:1.0.0"),
+                new ArtifactDescriptorResult(request("com.atomist:third:jar:1.0.0")));
+
+        assertEquals(1, cache.evictions());
+        assertNull(cache.get(second));
+        assertEquals(3, cache.weight());
+    }
+
+    @Test
+    public void testSnapshotsExpire() throws Exception {
+        ArtifactDescriptorCache cache = new ArtifactDescriptorCache(100, 1);
+        ArtifactDescriptorRequest snapshot = request("com.atomist:rug:jar:1.0.0-SNAPSHOT");
+        ArtifactDescriptorRequest release = request("com.atomist:rug:jar:1.0.0");
+        cache.put(snapshot, new ArtifactDescriptorResult(snapshot));
+        cache.put(release, new ArtifactDescriptorResult(release));
+
+        Thread.sleep(20);
+
+        assertNull(cache.get(snapshot));
+        assertEquals(1, cache.size());
+    }
+
+    private ArtifactDescriptorRequest request(String coords) {
+        return new ArtifactDescriptorRequest(new DefaultArtifact(coords), Collections.emptyList(),
+                null);
+    }
+}
@@ -0,0 +1,221 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.impl.RepositoryConnectorProvider;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.ArtifactUpload;
+import org.eclipse.aether.spi.connector.MetadataDownload;
+import org.eclipse.aether.spi.connector.MetadataUpload;
+import org.eclipse.aether.spi.connector.RepositoryConnector;
+import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transport.file.FileTransporterFactory;
+import org.eclipse.aether.transport.http.HttpTransporterFactory;
+import org.junit.Test;
+
+import com.atomist.rug.resolver.concurrent.Cancellation;
+import com.sun.net.httpserver.HttpServer;
+
+public class HedgedLookupTest {
+
+    @Test
+    public void testFirstRepositoryWithArtifactWins() throws Exception {
+        File root = Files.createTempDirectory("repos").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File empty = new File(root, "empty");
+            File full = new File(root, "full");
+            empty.mkdirs();
+            FileUtils.write(new File(full, "com/atomist/common-rugs/1.0.0/common-rugs-1.0.0.zip"),
+                    "rugs", "UTF-8");
+
+            DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+            locator.addService(RepositoryConnectorFactory.class,
+                    BasicRepositoryConnectorFactory.class);
+            locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+            DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+            session.setLocalRepositoryManager(locator.getService(RepositorySystem.class)
+                    .newLocalRepositoryManager(session,
+                            new LocalRepository(new File(root, "local"))));
+
+            RepositoryStats stats = new RepositoryStats();
+            HedgedLookup lookup = new HedgedLookup(
+                    locator.getService(RepositoryConnectorProvider.class), stats, executor);
+            Optional<RemoteRepository> repository = lookup.find(session,
+                    new DefaultArtifact("com.atomist:common-rugs:zip:1.0.0"),
+                    Arrays.asList(repository("empty", empty), repository("full", full)),
+                    new Cancellation()).get();
+
+            assertEquals("full", repository.get().getId());
+            assertEquals(1, stats.latencies().get("full").getCount());
+            assertFalse(lookup.find(session,
+                    new DefaultArtifact("com.atomist:missing-rugs:zip:1.0.0"),
+                    Arrays.asList(repository("empty", empty), repository("full", full)),
+                    new Cancellation()).get().isPresent());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(root);
+        }
+    }
+
+    @Test
+    public void testLosingChecksAreCountedButNotTimed() throws Exception {
+        File root = Files.createTempDirectory("repos").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        CountDownLatch slow = new CountDownLatch(1);
+        try {
+            server.createContext("/fast", exchange -> {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            server.createContext("/slow", exchange -> {
+                try {
+                    slow.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+            String url = "http://localhost:" + server.getAddress().getPort();
+
+            DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+            locator.addService(RepositoryConnectorFactory.class,
+                    BasicRepositoryConnectorFactory.class);
+            locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+            DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+            session.setLocalRepositoryManager(locator.getService(RepositorySystem.class)
+                    .newLocalRepositoryManager(session,
+                            new LocalRepository(new File(root, "local"))));
+
+            RepositoryStats stats = new RepositoryStats();
+            HedgedLookup lookup = new HedgedLookup(
+                    locator.getService(RepositoryConnectorProvider.class), stats, executor);
+            Optional<RemoteRepository> repository = lookup.find(session,
+                    new DefaultArtifact("com.atomist:common-rugs:zip:1.0.0"),
+                    Arrays.asList(
+                            new RemoteRepository.Builder("slow", "default", url + "/slow")
+                                    .build(),
+                            new RemoteRepository.Builder("fast", "default", url + "/fast")
+                                    .build()),
+                    new Cancellation()).get(10, TimeUnit.SECONDS);
+            assertEquals("fast", repository.get().getId());
+
+            // Let the losing check finish
+            slow.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+
+            assertEquals(1, stats.latencies().get("fast").getCount());
+            assertEquals(0, stats.latencies().get("slow").getCount());
+            assertEquals(1, stats.latencies().get("slow").getCancelled());
+        }
+        finally {
+            slow.countDown();
+            server.stop(0);
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(root);
+        }
+    }
+
+    @Test
+    public void testChecksOfASessionShareConnectors() throws Exception {
+        File root = Files.createTempDirectory("repos").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File empty = new File(root, "empty");
+            File full = new File(root, "full");
+            empty.mkdirs();
+            FileUtils.write(new File(full, "com/atomist/common-rugs/1.0.0/common-rugs-1.0.0.zip"),
+                    "rugs", "UTF-8");
+
+            DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+            locator.addService(RepositoryConnectorFactory.class,
+                    BasicRepositoryConnectorFactory.class);
+            locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+            DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+            session.setLocalRepositoryManager(locator.getService(RepositorySystem.class)
+                    .newLocalRepositoryManager(session,
+                            new LocalRepository(new File(root, "local"))));
+
+            RepositoryConnectorProvider provider = locator
+                    .getService(RepositoryConnectorProvider.class);
+            AtomicInteger opened = new AtomicInteger();
+            AtomicInteger closed = new AtomicInteger();
+            HedgedLookup lookup = new HedgedLookup((s, r) -> {
+                opened.incrementAndGet();
+                RepositoryConnector connector = provider.newRepositoryConnector(s, r);
+                return new RepositoryConnector() {
+
+                    @Override
+                    public void get(Collection<? extends ArtifactDownload> artifactDownloads,
+                            Collection<? extends MetadataDownload> metadataDownloads) {
+                        connector.get(artifactDownloads, metadataDownloads);
+                    }
+
+                    @Override
+                    public void put(Collection<? extends ArtifactUpload> artifactUploads,
+                            Collection<? extends MetadataUpload> metadataUploads) {
+                        connector.put(artifactUploads, metadataUploads);
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                        connector.close();
+                    }
+                };
+            }, new RepositoryStats(), executor);
+
+            Cancellation resolution = new Cancellation();
+            for (String version : Arrays.asList("1.0.0", "2.0.0", "3.0.0")) {
+                lookup.find(session,
+                        new DefaultArtifact("com.atomist:common-rugs:zip:" + version),
+                        Arrays.asList(repository("empty", empty), repository("full", full)),
+                        resolution).get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(2, opened.get());
+            assertEquals(0, closed.get());
+
+            // Completing the resolution closes them
+            resolution.cancel();
+            assertEquals(2, closed.get());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(root);
+        }
+    }
+
+    private RemoteRepository repository(String id, File directory) {
+        return new RemoteRepository.Builder(id, "default", directory.toURI().toString()).build();
+    }
+}
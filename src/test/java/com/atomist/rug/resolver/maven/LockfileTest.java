@@ -0,0 +1,97 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor;
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.ArtifactDescriptor.Scope;
+import com.atomist.rug.resolver.DefaultArtifactDescriptor;
+import com.atomist.rug.resolver.LocalArtifactDescriptor;
+
+public class LockfileTest {
+
+    @Test
+    public void testLockfileRoundTrip() throws Exception {
+        File project = Files.createTempDirectory("project").toFile();
+        try {
+            new File(project, ".atomist").mkdirs();
+            File archive = new File(project, "common-rugs.zip");
+            FileUtils.write(archive, "rugs", "UTF-8");
+
+            ArtifactDescriptor artifact = local(project, "[1.0.0,2.0.0)");
+            DefaultDependencyNode root = new DefaultDependencyNode(
+                    new Dependency(new DefaultArtifact("com.atomist:test-rugs:zip:1.0.0"),
+                            "compile"));
+            Artifact common = new DefaultArtifact("com.atomist:common-rugs:zip:1.2.0")
+                    .setFile(archive);
+            root.getChildren().add(new DefaultDependencyNode(new Dependency(common, "compile")));
+
+            Map<String, ArtifactResult> results = new HashMap<>();
+            results.put(ArtifactIdUtils.toId(common),
+                    new ArtifactResult(new ArtifactRequest()).setArtifact(common).setRepository(
+                            new RemoteRepository.Builder("central", "default", "http://repo")
+                                    .build()));
+            Lockfile.create(artifact, root, results).write(artifact);
+
+            Lockfile lockfile = Lockfile.read(artifact).get();
+            assertTrue(lockfile.matches(artifact));
+            assertFalse(lockfile.matches(local(project, "1.3.0")));
+            assertFalse(lockfile.matches(local(project, "2.0.0", "[1.0.0,2.0.0)")));
+            assertEquals(1, new File(project, ".atomist").list().length);
+
+            Lockfile.Entry entry = lockfile.root().dependencies().get(0);
+            assertEquals("1.2.0", entry.toArtifact().getVersion());
+            assertEquals("central", entry.repository());
+            assertEquals(Lockfile.sha1(archive), entry.sha1());
+            assertNull(lockfile.root().sha1());
+        }
+        finally {
+            FileUtils.deleteQuietly(project);
+        }
+    }
+
+    @Test
+    public void testBrokenLockfilesAreIgnored() throws Exception {
+        File project = Files.createTempDirectory("project").toFile();
+        try {
+            FileUtils.write(new File(project, ".atomist/" + Lockfile.FILE_NAME),
+                    "root: [unterminated", "UTF-8");
+
+            assertFalse(Lockfile.read(local(project, "1.0.0")).isPresent());
+        }
+        finally {
+            FileUtils.deleteQuietly(project);
+        }
+    }
+
+    private ArtifactDescriptor local(File project, String version) {
+        return local(project, "1.0.0", version);
+    }
+
+    private ArtifactDescriptor local(File project, String rootVersion, String version) {
+        LocalArtifactDescriptor artifact = new LocalArtifactDescriptor("com.atomist",
+                "test-rugs", rootVersion, Extension.ZIP, Scope.COMPILE, project.getPath());
+        artifact.addDependency(new DefaultArtifactDescriptor("com.atomist", "common-rugs",
+                version, Extension.ZIP));
+        return artifact;
+    }
+}
@@ -1,5 +1,611 @@
 package com.atomist.rug.resolver.maven;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor;
+import com.atomist.rug.resolver.ArtifactDescriptor.Extension;
+import com.atomist.rug.resolver.DefaultArtifactDescriptor;
+import com.atomist.rug.resolver.DependencyResolverException;
+import com.atomist.rug.resolver.DependencyVerificationListener;
+
 public class MavenBasedDependencyResolverTest {
 
+    @Test
+    public void testNewSessionsSeeUpdatedMetadataIfNotCached() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "first", "1.0.0");
+            publish(remote, "second", "1.0.0");
+            publish(remote, "rugs", "1.0.0-SNAPSHOT", "first:1.0.0");
+            MavenProperties properties = properties(remote, local);
+            properties.setCacheMetadata(false);
+            MavenBasedDependencyResolver resolver = resolver(properties, executor);
+
+            ArtifactDescriptor rugs = artifact("rugs", "1.0.0-SNAPSHOT");
+            assertEquals("first", names(resolver.resolveRugs(rugs)));
+            publish(remote, "rugs", "1.0.0-SNAPSHOT", "second:1.0.0");
+            assertEquals("second", names(resolver.resolveRugs(rugs)));
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testBatchesWithRangedArchivesReturnTreesInRequestedOrder() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "first", "1.0.0");
+            publish(remote, "second", "1.0.0");
+            publish(remote, "rugs", "1.0.0", "first:1.0.0");
+            publish(remote, "rugs", "1.1.0", "second:1.0.0");
+            publish(remote, "other", "1.0.0", "first:1.0.0", "second:1.0.0:optional");
+            MavenBasedDependencyResolver resolver = resolver(properties(remote, local), executor);
+
+            List<ArtifactDescriptor> trees = resolver.resolveRugs(Arrays.asList(
+                    artifact("first", "1.0.0"), artifact("rugs", "[1.0.0,2.0.0)"),
+                    artifact("other", "1.0.0"), artifact("second", "1.0.0")));
+
+            assertEquals("first:1.0.0,rugs:1.1.0,other:1.0.0,second:1.0.0",
+                    trees.stream().map(t -> t.artifact() + ":" + t.version())
+                            .collect(Collectors.joining(",")));
+            assertEquals("second", names(trees.get(1)));
+            // Optional dependencies of archives in the batch are kept like for single archives
+            assertEquals("first,second", names(trees.get(2)));
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testBatchesJoinResolutionsInFlight() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            publish(remote, "first", "1.0.0");
+            publish(remote, "second", "1.0.0");
+            List<String> collected = new CopyOnWriteArrayList<>();
+            MavenBasedDependencyResolver resolver = new MavenBasedDependencyResolver(
+                    recording(new MavenConfiguration().repositorySystem(), collected),
+                    properties(remote, local), executor);
+
+            // Keep the resolution of the first archive queued until the batch joined it
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<ArtifactDescriptor> single = resolver.async()
+                    .resolveRugs(artifact("first", "1.0.0"));
+            CompletableFuture<List<ArtifactDescriptor>> batch = resolver.async().resolveRugs(
+                    Arrays.asList(artifact("first", "1.0.0"), artifact("second", "1.0.0")));
+            latch.countDown();
+
+            assertEquals("first", single.get(30, TimeUnit.SECONDS).artifact());
+            assertEquals("first,second", batch.get(30, TimeUnit.SECONDS).stream()
+                    .map(ArtifactDescriptor::artifact).collect(Collectors.joining(",")));
+            Collections.sort(collected);
+            assertEquals("[first, second]", collected.toString());
+        }
+        finally {
+            latch.countDown();
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testFirstFailedDownloadCancelsTheOthers() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            publish(remote, "slow", "1.0.0");
+            publish(remote, "missing", "1.0.0");
+            publish(remote, "rugs", "1.0.0", "slow:1.0.0", "missing:1.0.0");
+            FileUtils.forceDelete(new File(remote, "com/atomist/missing/1.0.0/missing-1.0.0.zip"));
+            MavenBasedDependencyResolver resolver = resolver(properties(remote, local), executor);
+            resolver.setTransferListener(new AbstractTransferListener() {
+
+                @Override
+                public void transferInitiated(TransferEvent event)
+                        throws TransferCancelledException {
+                    String name = event.getResource().getResourceName();
+                    try {
+                        if (name.endsWith("slow-1.0.0.zip")) {
+                            // Hold the download until it gets cancelled
+                            started.countDown();
+                            Thread.sleep(30000);
+                        }
+                        else if (name.endsWith("missing-1.0.0.zip")) {
+                            started.await(5, TimeUnit.SECONDS);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw new TransferCancelledException();
+                    }
+                }
+            });
+
+            try {
+                resolver.async().resolveRugs(artifact("rugs", "1.0.0")).get(10,
+                        TimeUnit.SECONDS);
+                throw new AssertionError("Expected failure");
+            }
+            catch (ExecutionException e) {
+                assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testDownloadsStartWhileDependenciesAreCollected() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch downloading = new CountDownLatch(1);
+        try {
+            publish(remote, "second", "1.0.0");
+            publish(remote, "ranged", "1.0.0");
+            publish(remote, "ranged", "1.1.0");
+            publish(remote, "first", "1.0.0", "second:1.0.0", "ranged:[1.0.0,2.0.0)");
+            publish(remote, "rugs", "1.0.0", "first:1.0.0");
+            MavenBasedDependencyResolver resolver = resolver(properties(remote, local), executor);
+            List<String> transferred = new CopyOnWriteArrayList<>();
+            List<Boolean> overlapped = new CopyOnWriteArrayList<>();
+            resolver.setTransferListener(new AbstractTransferListener() {
+
+                @Override
+                public void transferInitiated(TransferEvent event) {
+                    String name = new File(event.getResource().getResourceName()).getName();
+                    transferred.add(name);
+                    try {
+                        if (name.equals("first-1.0.0.zip")) {
+                            downloading.countDown();
+                        }
+                        else if (name.equals("second-1.0.0.pom")) {
+                            // Collection only gets past this POM once the archive depending on
+                            // it is being downloaded
+                            overlapped.add(downloading.await(5, TimeUnit.SECONDS));
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            List<ArtifactDescriptor> dependencies = resolver
+                    .resolveDependencies(artifact("rugs", "1.0.0"));
+            assertEquals(Collections.singletonList(true), overlapped);
+            assertEquals("second:1.0.0,ranged:1.1.0,first:1.0.0,rugs:1.0.0",
+                    dependencies.stream().map(d -> d.artifact() + ":" + d.version())
+                            .collect(Collectors.joining(",")));
+            // Only the version of the range that won got downloaded
+            assertTrue(!transferred.contains("ranged-1.0.0.zip"));
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testRemoteTransfersRunOnTheDownloadPool() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService downloads = Executors.newCachedThreadPool(
+                r -> new Thread(r, "downloads"));
+        try {
+            publish(remote, "first", "1.0.0");
+            publish(remote, "rugs", "1.0.0", "first:1.0.0");
+            MavenBasedDependencyResolver resolver = new MavenBasedDependencyResolver(
+                    new MavenConfiguration().repositorySystem(), properties(remote, local),
+                    executor, downloads);
+            List<String> threads = new CopyOnWriteArrayList<>();
+            resolver.setTransferListener(new AbstractTransferListener() {
+
+                @Override
+                public void transferInitiated(TransferEvent event) {
+                    if (event.getResource().getResourceName().endsWith(".zip")) {
+                        threads.add(Thread.currentThread().getName());
+                    }
+                }
+            });
+
+            assertEquals("first", names(resolver.resolveRugs(artifact("rugs", "1.0.0"))));
+            assertEquals(Arrays.asList("downloads", "downloads"), threads);
+        }
+        finally {
+            executor.shutdownNow();
+            downloads.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testVerificationsCancelledBySiblingsRaiseTerminalEvents() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch ended = new CountDownLatch(1);
+        try {
+            publish(remote, "slow", "1.0.0");
+            publish(remote, "broken", "1.0.0");
+            publish(remote, "rugs", "1.0.0", "slow:1.0.0", "broken:1.0.0");
+            write(new File(remote, "com/atomist/slow/1.0.0/slow-1.0.0.zip.asc"), "signature");
+            MavenBasedDependencyResolver resolver = new MavenBasedDependencyResolver(
+                    new MavenConfiguration().repositorySystem(), properties(remote, local),
+                    executor) {
+
+                @Override
+                protected boolean shouldVerify(DependencyNode node, DependencyNode parent) {
+                    return parent != null;
+                }
+            };
+            resolver.setTransferListener(new AbstractTransferListener() {
+
+                @Override
+                public void transferInitiated(TransferEvent event)
+                        throws TransferCancelledException {
+                    String name = event.getResource().getResourceName();
+                    try {
+                        if (name.endsWith("slow-1.0.0.zip.asc")) {
+                            // Hold the verification until it gets cancelled
+                            started.countDown();
+                            Thread.sleep(30000);
+                        }
+                        else if (name.endsWith("broken-1.0.0.zip.asc")) {
+                            started.await(5, TimeUnit.SECONDS);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        throw new TransferCancelledException();
+                    }
+                }
+            });
+            List<String> events = new CopyOnWriteArrayList<>();
+            resolver.addDependencyVerificationListener(new DependencyVerificationListener() {
+
+                @Override
+                public void starting(String group, String artifact, String version) {
+                    events.add("starting:" + artifact);
+                }
+
+                @Override
+                public void succeeded(String group, String artifact, String version) {
+                    events.add("succeeded:" + artifact);
+                }
+
+                @Override
+                public void failed(String group, String artifact, String version, Exception e) {
+                    events.add("failed:" + artifact);
+                }
+
+                @Override
+                public void cancelled(String group, String artifact, String version) {
+                    events.add("cancelled:" + artifact);
+                    ended.countDown();
+                }
+            });
+
+            try {
+                resolver.async().resolveDependencies(artifact("rugs", "1.0.0"),
+                        (jar, asc, pom, pomAsc) -> true).get(10, TimeUnit.SECONDS);
+                throw new AssertionError("Expected failure");
+            }
+            catch (ExecutionException e) {
+                assertTrue(ended.await(5, TimeUnit.SECONDS));
+                Collections.sort(events);
+                assertEquals("[cancelled:slow, failed:broken, starting:broken, starting:slow]",
+                        events.toString());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testRoutedGroupsDontProbeOtherRepositories() throws Exception {
+        File empty = Files.createTempDirectory("empty").toFile();
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "first", "1.0.0");
+            publish(remote, "rugs", "1.0.0", "first:1.0.0");
+            new RepositoryRoutes(local.getPath()).learn("com.atomist", "test");
+
+            MavenProperties.Repo emptyRepo = new MavenProperties.Repo();
+            emptyRepo.setUrl(empty.toURI().toString());
+            MavenProperties properties = properties(remote, local);
+            Map<String, MavenProperties.Repo> repos = new LinkedHashMap<>();
+            repos.put("empty", emptyRepo);
+            repos.putAll(properties.getRepos());
+            properties.setRepos(repos);
+            MavenBasedDependencyResolver resolver = resolver(properties, executor);
+            List<String> probed = new CopyOnWriteArrayList<>();
+            resolver.setTransferListener(new AbstractTransferListener() {
+
+                @Override
+                public void transferInitiated(TransferEvent event) {
+                    probed.add(event.getResource().getRepositoryId() + ":"
+                            + new File(event.getResource().getResourceName()).getName());
+                }
+            });
+
+            assertEquals("first", names(resolver.resolveRugs(artifact("rugs", "1.0.0"))));
+            assertEquals(4, probed.size());
+            assertTrue(probed.stream().allMatch(p -> p.startsWith("test:")));
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(empty);
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testVersionsAreResolvedOncePerRange() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "rugs", "1.0.0");
+            publish(remote, "rugs", "1.1.0");
+            publish(remote, "rugs", "2.0.0");
+            publish(remote, "other", "1.0.0");
+            List<String> queried = new CopyOnWriteArrayList<>();
+            MavenBasedDependencyResolver resolver = new MavenBasedDependencyResolver(
+                    recording(new MavenConfiguration().repositorySystem(), queried),
+                    properties(remote, local), executor);
+
+            ArtifactDescriptor range = artifact("rugs", "[1.0.0,2.0.0)");
+            ArtifactDescriptor latest = artifact("rugs", "latest");
+            ArtifactDescriptor exact = artifact("other", "1.0.0");
+            ArtifactDescriptor sameRange = new DefaultArtifactDescriptor("com.atomist", "rugs",
+                    "[1.0.0,2.0.0)", Extension.JAR);
+            Map<ArtifactDescriptor, String> versions = resolver
+                    .resolveVersions(Arrays.asList(range, latest, exact, sameRange));
+
+            assertEquals(Arrays.asList(range, latest, exact, sameRange),
+                    new ArrayList<>(versions.keySet()));
+            assertEquals(Arrays.asList("1.1.0", "2.0.0", "1.0.0", "1.1.0"),
+                    new ArrayList<>(versions.values()));
+            Collections.sort(queried);
+            assertEquals("[rugs:[,), rugs:[1.0.0,2.0.0)]", queried.toString());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testExactVersionsDontTakePoolThreads() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "rugs", "1.0.0");
+            MavenBasedDependencyResolver resolver = resolver(properties(remote, local), executor);
+
+            ArtifactDescriptor first = artifact("first", "1.0.0");
+            ArtifactDescriptor second = artifact("second", "2.0.0");
+            long tasks = executor.getTaskCount();
+            assertEquals("1.0.0", resolver.resolveVersion(first));
+            assertEquals(Arrays.asList("1.0.0", "2.0.0"), new ArrayList<>(
+                    resolver.resolveVersions(Arrays.asList(first, second)).values()));
+            assertEquals(tasks, executor.getTaskCount());
+
+            // Only the batch and its range take a thread
+            assertEquals(Arrays.asList("1.0.0", "1.0.0", "2.0.0"),
+                    new ArrayList<>(resolver.resolveVersions(
+                            Arrays.asList(artifact("rugs", "latest"), first, second)).values()));
+            assertEquals(tasks + 2, executor.getTaskCount());
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    @Test
+    public void testUnknownVersionsFailTheBatch() throws Exception {
+        File remote = Files.createTempDirectory("remote").toFile();
+        File local = Files.createTempDirectory("local").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            publish(remote, "rugs", "1.0.0");
+            MavenBasedDependencyResolver resolver = resolver(properties(remote, local), executor);
+
+            resolver.resolveVersions(Arrays.asList(artifact("rugs", "latest"),
+                    artifact("rugs", "[2.0.0,3.0.0)")));
+            throw new AssertionError("Expected failure");
+        }
+        catch (DependencyResolverException e) {
+            assertTrue(e.getMessage().contains("com.atomist:rugs"));
+        }
+        finally {
+            executor.shutdownNow();
+            FileUtils.deleteQuietly(remote);
+            FileUtils.deleteQuietly(local);
+        }
+    }
+
+    static MavenBasedDependencyResolver resolver(MavenProperties properties,
+            ExecutorService executor) {
+        return new MavenBasedDependencyResolver(new MavenConfiguration().repositorySystem(),
+                properties, executor);
+    }
+
+    static MavenProperties properties(File remote, File local) {
+        MavenProperties.Repo repo = new MavenProperties.Repo();
+        repo.setUrl(remote.toURI().toString());
+        MavenProperties properties = new MavenProperties();
+        properties.setRepoLocation(local.getPath());
+        properties.setRepos(Collections.singletonMap("test", repo));
+        return properties;
+    }
+
+    static ArtifactDescriptor artifact(String name, String version) {
+        return new DefaultArtifactDescriptor("com.atomist", name, version, Extension.ZIP);
+    }
+
+    // Records the archives of every collection and the artifact and range of every range query
+    // run through the given repository system
+    static RepositorySystem recording(RepositorySystem repositorySystem, List<String> calls) {
+        return (RepositorySystem) Proxy.newProxyInstance(
+                RepositorySystem.class.getClassLoader(), new Class<?>[] { RepositorySystem.class },
+                (proxy, method, args) -> {
+                    if ("collectDependencies".equals(method.getName())) {
+                        CollectRequest request = (CollectRequest) args[1];
+                        if (request.getRoot() != null) {
+                            calls.add(request.getRoot().getArtifact().getArtifactId());
+                        }
+                        request.getDependencies()
+                                .forEach(d -> calls.add(d.getArtifact().getArtifactId()));
+                    }
+                    else if ("resolveVersionRange".equals(method.getName())) {
+                        Artifact artifact = ((VersionRangeRequest) args[1]).getArtifact();
+                        calls.add(artifact.getArtifactId() + ":" + artifact.getVersion());
+                    }
+                    try {
+                        return method.invoke(repositorySystem, args);
+                    }
+                    catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    static String names(ArtifactDescriptor tree) {
+        return tree.dependencies().stream().map(ArtifactDescriptor::artifact)
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Publishes a rug archive with the given <code>artifact:version[:optional]</code>
+     * dependencies to the given file repository and adds its version to the repository metadata.
+     * Snapshots get published as a new timestamped build.
+     */
+    static void publish(File repository, String name, String version, String... dependencies)
+            throws Exception {
+        File directory = new File(repository, "com/atomist/" + name);
+        File versionDirectory = new File(directory, version);
+        String fileVersion = version;
+        if (version.endsWith("-SNAPSHOT")) {
+            int build = (versionDirectory.exists()
+                    ? versionDirectory.list((d, n) -> n.endsWith(".pom")).length + 1 : 1);
+            fileVersion = version.replace("SNAPSHOT", "20170101.000000-" + build);
+            write(new File(versionDirectory, "maven-metadata.xml"),
+                    "<metadata><groupId>com.atomist</groupId><artifactId>" + name
+                            + "</artifactId><version>" + version
+                            + "</version><versioning><snapshot><timestamp>20170101.000000"
+                            + "</timestamp><buildNumber>" + build
+                            + "</buildNumber></snapshot></versioning></metadata>");
+        }
+
+        StringBuilder pom = new StringBuilder();
+        pom.append("<project><modelVersion>4.0.0</modelVersion><groupId>com.atomist</groupId>")
+                .append("<artifactId>").append(name).append("</artifactId><version>")
+                .append(version).append("</version><packaging>zip</packaging><dependencies>");
+        for (String dependency : dependencies) {
+            String[] parts = dependency.split(":");
+            pom.append("<dependency><groupId>com.atomist</groupId><artifactId>").append(parts[0])
+                    .append("</artifactId><version>").append(parts[1])
+                    .append("</version><type>zip</type><optional>")
+                    .append(parts.length > 2).append("</optional></dependency>");
+        }
+        pom.append("</dependencies></project>");
+        write(new File(versionDirectory, name + "-" + fileVersion + ".pom"), pom.toString());
+        write(new File(versionDirectory, name + "-" + fileVersion + ".zip"), name);
+
+        File metadata = new File(directory, "maven-metadata.xml");
+        String versions = (metadata.exists() ? FileUtils.readFileToString(metadata, "UTF-8")
+                .replaceAll("(?s).*<versions>(.*)</versions>.*", "$1") : "");
+        if (!versions.contains("<version>" + version + "</version>")) {
+            versions += "<version>" + version + "</version>";
+        }
+        write(metadata, "<metadata><groupId>com.atomist</groupId><artifactId>" + name
+                + "</artifactId><versioning><versions>" + versions
+                + "</versions></versioning></metadata>");
+    }
+
+    // Writes the given file along with its checksum
+    private static void write(File file, String content) throws Exception {
+        byte[] bytes = content.getBytes("UTF-8");
+        FileUtils.writeByteArrayToFile(file, bytes);
+        StringBuilder sha1 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+            sha1.append(String.format("%02x", b));
+        }
+        FileUtils.write(new File(file.getPath() + ".sha1"), sha1, "UTF-8");
+    }
 }
@@ -0,0 +1,113 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.atomist.rug.resolver.ArtifactDescriptor;
+import com.atomist.rug.resolver.AsyncDependencyResolver;
+import com.atomist.rug.resolver.DependencyResolverException;
+import com.atomist.rug.resolver.DependencyVerifier;
+
+public class MavenWarmUpTest {
+
+    @Test
+    public void testArchivesAreResolvedInOrderWithLimitedConcurrency() throws Exception {
+        StubResolver resolver = new StubResolver();
+        MavenWarmUp warmUp = new MavenWarmUp(resolver, properties(2, "com.atomist:first:1.0.0",
+                "com.atomist:second:1.0.0", "com.atomist:third:jar:1.0.0"));
+
+        warmUp.start();
+        warmUp.start();
+        assertEquals(Arrays.asList("first:1.0.0", "second:1.0.0"), resolver.requested);
+
+        resolver.complete("first:1.0.0");
+        assertEquals(Arrays.asList("first:1.0.0", "second:1.0.0", "third:1.0.0"),
+                resolver.requested);
+        assertFalse(warmUp.awaitReady(10, TimeUnit.MILLISECONDS));
+
+        resolver.complete("third:1.0.0");
+        assertFalse(warmUp.isReady());
+        // Failures don't keep the warm-up from becoming ready
+        resolver.fail("second:1.0.0");
+        assertTrue(warmUp.isReady());
+        assertTrue(warmUp.awaitReady(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRangesAreResolvedBeforeTheirRugs() throws Exception {
+        StubResolver resolver = new StubResolver();
+        MavenWarmUp warmUp = new MavenWarmUp(resolver,
+                properties(1, "com.atomist:first:latest", "com.atomist:second:[1.0.0,2.0.0)"));
+
+        warmUp.start();
+        resolver.complete("first:1.2.0");
+        resolver.complete("second:1.2.0");
+
+        assertEquals(Arrays.asList("first:latest", "first:1.2.0", "second:[1.0.0,2.0.0)",
+                "second:1.2.0"), resolver.requested);
+        assertTrue(warmUp.isReady());
+    }
+
+    @Test
+    public void testWithoutArchivesTheWarmUpIsReadyRightAway() throws Exception {
+        MavenWarmUp warmUp = new MavenWarmUp(new StubResolver(), properties(4));
+        assertFalse(warmUp.isReady());
+
+        warmUp.start();
+        assertTrue(warmUp.awaitReady(0, TimeUnit.MILLISECONDS));
+    }
+
+    private MavenProperties properties(int concurrency, String... archives) {
+        MavenProperties properties = new MavenProperties();
+        properties.setWarmUp(new ArrayList<>(Arrays.asList(archives)));
+        properties.setWarmUpConcurrency(concurrency);
+        return properties;
+    }
+
+    private static class StubResolver implements AsyncDependencyResolver {
+
+        private final List<String> requested = Collections.synchronizedList(new ArrayList<>());
+        private final Map<String, CompletableFuture<ArtifactDescriptor>> rugs =
+                new ConcurrentHashMap<>();
+
+        public void complete(String archive) {
+            rugs.get(archive).complete(null);
+        }
+
+        public void fail(String archive) {
+            rugs.get(archive).completeExceptionally(
+                    new DependencyResolverException("Unable to resolve " + archive));
+        }
+
+        @Override
+        public CompletableFuture<List<ArtifactDescriptor>> resolveDependencies(
+                ArtifactDescriptor artifact, DependencyVerifier... verifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<ArtifactDescriptor> resolveRugs(ArtifactDescriptor artifact) {
+            String archive = artifact.artifact() + ":" + artifact.version();
+            requested.add(archive);
+            return rugs.computeIfAbsent(archive, a -> new CompletableFuture<>());
+        }
+
+        @Override
+        public CompletableFuture<String> resolveVersion(ArtifactDescriptor artifact) {
+            requested.add(artifact.artifact() + ":" + artifact.version());
+            return CompletableFuture.completedFuture("1.2.0");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.util.graph.selector.OptionalDependencySelector;
+import org.junit.Test;
+
+public class MergedRootsSessionTest {
+
+    @Test
+    public void testArchivesAreSelectedAsIfTheyWereTheRoot() {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setDependencySelector(new OptionalDependencySelector());
+        RepositorySystemSession merged = MergedRootsSession.create(session);
+        Dependency optional = new Dependency(
+                new DefaultArtifact("com.atomist", "optional", "zip", "1.0.0"), "compile", true);
+
+        DependencyCollectionContext context = context(merged);
+
+        // The collector derives a selector for the synthetic root's children, the archives
+        DependencySelector archives = merged.getDependencySelector().deriveChildSelector(context);
+        assertTrue(archives.selectDependency(optional));
+
+        // Optional dependencies of the archives are kept like those of a single root ...
+        DependencySelector dependencies = archives.deriveChildSelector(context);
+        assertTrue(dependencies.selectDependency(optional));
+        assertTrue(session.getDependencySelector().deriveChildSelector(context(session))
+                .selectDependency(optional));
+
+        // ... but not transitive ones
+        assertFalse(dependencies.deriveChildSelector(context).selectDependency(optional));
+    }
+
+    private DependencyCollectionContext context(RepositorySystemSession session) {
+        return new DependencyCollectionContext() {
+
+            @Override
+            public RepositorySystemSession getSession() {
+                return session;
+            }
+
+            @Override
+            public Artifact getArtifact() {
+                return MergedRootsSession.ROOT;
+            }
+
+            @Override
+            public Dependency getDependency() {
+                return null;
+            }
+
+            @Override
+            public List<Dependency> getManagedDependencies() {
+                return Collections.emptyList();
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.junit.Test;
+
+public class MissingArtifactCacheTest {
+
+    @Test
+    public void testMissingArtifactsAreNotRequestedAgain() throws Exception {
+        File repoLocation = Files.createTempDirectory("repo").toFile();
+        try {
+            Artifact signature = new DefaultArtifact("com.atomist:common-rugs:zip.asc:1.0.0");
+            RemoteRepository central = repository("central");
+            RemoteRepository rugs = repository("rugs");
+            List<RemoteRepository> repositories = Arrays.asList(central, rugs);
+
+            new MissingArtifactCache(repoLocation.getPath(), 1000 * 60)
+                    .record(notFound(signature, central));
+
+            // A new instance reads the misses back from disk
+            MissingArtifactCache cache = new MissingArtifactCache(repoLocation.getPath(),
+                    1000 * 60);
+            assertEquals(Collections.singletonList(rugs), cache.filter(signature, repositories));
+            assertEquals(repositories, cache.filter(
+                    new DefaultArtifact("com.atomist:common-rugs:zip:1.0.0"), repositories));
+            assertEquals(1, cache.avoided());
+
+            // Without timeout nothing gets cached
+            assertEquals(repositories,
+                    new MissingArtifactCache(repoLocation.getPath(), 0).filter(signature,
+                            repositories));
+        }
+        finally {
+            FileUtils.deleteQuietly(repoLocation);
+        }
+    }
+
+    @Test
+    public void testOnlyOptionalArtifactsAreCached() throws Exception {
+        File repoLocation = Files.createTempDirectory("repo").toFile();
+        try {
+            Artifact archive = new DefaultArtifact("com.atomist:common-rugs:zip:1.0.0");
+            Artifact metadata = new DefaultArtifact("com.atomist:common-rugs:json:metadata:1.0.0");
+            RemoteRepository central = repository("central");
+            List<RemoteRepository> repositories = Collections.singletonList(central);
+
+            MissingArtifactCache cache = new MissingArtifactCache(repoLocation.getPath(),
+                    1000 * 60);
+            cache.record(notFound(archive, central));
+            cache.record(notFound(metadata, central));
+
+            assertEquals(repositories, cache.filter(archive, repositories));
+            assertEquals(Collections.emptyList(), cache.filter(metadata, repositories));
+            assertEquals(1, cache.recorded());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoLocation);
+        }
+    }
+
+    @Test
+    public void testMissingFileIsCompactedAsItGrows() throws Exception {
+        File repoLocation = Files.createTempDirectory("repo").toFile();
+        try {
+            Artifact signature = new DefaultArtifact("com.atomist:common-rugs:zip.asc:1.0.0");
+            RemoteRepository central = repository("central");
+
+            // Concurrent resolutions may record the same miss over and over
+            MissingArtifactCache cache = new MissingArtifactCache(repoLocation.getPath(),
+                    1000 * 60);
+            for (int i = 0; i < 500; i++) {
+                cache.record(notFound(signature, central));
+            }
+
+            File missing = new File(repoLocation, "_resolver.missing");
+            assertTrue(FileUtils.readLines(missing, "UTF-8").size() <= 102);
+            assertEquals(1, cache.size());
+            assertEquals(Collections.emptyList(),
+                    new MissingArtifactCache(repoLocation.getPath(), 1000 * 60).filter(signature,
+                            Collections.singletonList(central)));
+        }
+        finally {
+            FileUtils.deleteQuietly(repoLocation);
+        }
+    }
+
+    private ArtifactResolutionException notFound(Artifact artifact, RemoteRepository repository) {
+        ArtifactResult result = new ArtifactResult(new ArtifactRequest(artifact,
+                Collections.singletonList(repository), null));
+        result.addException(new ArtifactNotFoundException(artifact, repository));
+        return new ArtifactResolutionException(Collections.singletonList(result));
+    }
+
+    private RemoteRepository repository(String id) {
+        return new RemoteRepository.Builder(id, "default", "https://" + id + ".example.com/")
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package com.atomist.rug.resolver.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Test;
+
+public class RepositoryRoutesTest {
+
+    @Test
+    public void testLearnedRepositoryIsTriedFirst() throws Exception {
+        File repoLocation = Files.createTempDirectory("repo").toFile();
+        try {
+            List<RemoteRepository> repositories = Arrays.asList(repository("central"),
+                    repository("rugs"));
+            new RepositoryRoutes(repoLocation.getPath()).learn("com.atomist", "rugs");
+
+            // A new instance reads the routes back from disk
+            RepositoryRoutes routes = new RepositoryRoutes(repoLocation.getPath());
+            assertEquals("rugs,central", ids(routes.order("com.atomist", repositories)));
+            assertEquals("rugs,central", ids(routes.order("com.atomist.rugs", repositories)));
+            assertEquals("central,rugs", ids(routes.order("org.example", repositories)));
+            assertFalse(routes.route("com").isPresent());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoLocation);
+        }
+    }
+
+    @Test
+    public void testRoutesFileIsAppendedToAndCompacted() throws Exception {
+        File repoLocation = Files.createTempDirectory("repo").toFile();
+        try {
+            RepositoryRoutes routes = new RepositoryRoutes(repoLocation.getPath());
+            File routesFile = new File(repoLocation, "_resolver.routes");
+            routes.learn("com.atomist", "rugs");
+            routes.learn("com.atomist", "rugs");
+            routes.learn("org.example", "central");
+            assertEquals(2, FileUtils.readLines(routesFile, "UTF-8").size());
+
+            // Flipping routes append until the file gets compacted
+            for (int i = 0; i < 500; i++) {
+                routes.learn("com.atomist", (i % 2 == 0 ? "central" : "rugs"));
+            }
+            assertTrue(FileUtils.readLines(routesFile, "UTF-8").size() <= 104);
+            RepositoryRoutes loaded = new RepositoryRoutes(repoLocation.getPath());
+            assertEquals("rugs", loaded.route("com.atomist").get());
+            assertEquals("central", loaded.route("org.example").get());
+            // Loading compacts the file
+            assertEquals(2, FileUtils.readLines(routesFile, "UTF-8").size());
+        }
+        finally {
+            FileUtils.deleteQuietly(repoLocation);
+        }
+    }
+
+    @Test
+    public void testLongestUrlPrefixWins() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.put("https://repo.example.com/", "all");
+        trie.put("https://repo.example.com/rugs/", "rugs");
+
+        assertEquals("rugs", trie.find("https://repo.example.com/rugs/releases"));
+        assertEquals("all", trie.find("https://repo.example.com/maven"));
+        assertNull(trie.find("https://other.example.com/"));
+    }
+
+    private String ids(List<RemoteRepository> repositories) {
+        return repositories.stream().map(RemoteRepository::getId)
+                .collect(Collectors.joining(","));
+    }
+
+    private RemoteRepository repository(String id) {
+        return new RemoteRepository.Builder(id, "default", "https://" + id + ".example.com/")
+                .build();
+    }
+}